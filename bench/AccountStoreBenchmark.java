@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帳號庫 (IndexedAccountStore) 的壓力測試：多條執行緒同時註冊、隨機查詢，再量測重新開啟與重建索引的時間。
+ * <p>
+ * 用法 (於專案根目錄編譯後)：
+ * <pre>
+ * java -cp out AccountStoreBenchmark [--accounts=200000] [--threads=16] [--lookups=1000000] [--dir=bench-accounts]
+ * </pre>
+ * 目錄中既有的帳號庫會先被清除。註冊階段回報每秒註冊數與 fsync 次數 (平均每次提交涵蓋幾筆註冊)。
+ */
+public class AccountStoreBenchmark {
+    public static void main(String[] args) throws Exception {
+        int accounts = 200_000;
+        int threads = 16;
+        int lookups = 1_000_000;
+        Path dir = Paths.get("bench-accounts");
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--accounts=")) accounts = Integer.parseInt(value);
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(value);
+            else if (arg.startsWith("--lookups=")) lookups = Integer.parseInt(value);
+            else if (arg.startsWith("--dir=")) dir = Paths.get(value);
+            else throw new IllegalArgumentException("未知參數: " + arg);
+        }
+        clear(dir);
+
+        IndexedAccountStore store = IndexedAccountStore.open(dir);
+        int total = accounts;
+        AtomicLong next = new AtomicLong();
+        long start = System.nanoTime();
+        runParallel(threads, () -> {
+            long i;
+            while ((i = next.getAndIncrement()) < total) {
+                store.add("user" + i, "password" + i);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        long commits = store.commitCount();
+        System.out.printf("註冊 %d 個帳號 (%d 條執行緒): %.0f 次/秒，fsync %d 次，平均每次 %.1f 筆%n",
+                total, threads, total / (elapsed / 1e9), commits, (double) total / Math.max(1, commits));
+
+        int lookupCount = lookups;
+        AtomicLong remaining = new AtomicLong(lookupCount);
+        AtomicLong misses = new AtomicLong();
+        start = System.nanoTime();
+        runParallel(threads, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (remaining.getAndDecrement() > 0) {
+                int i = random.nextInt(total);
+                if (!("password" + i).equals(store.get("user" + i)))
+                    misses.incrementAndGet();
+            }
+        });
+        elapsed = System.nanoTime() - start;
+        System.out.printf("隨機查詢 %d 次: %.0f 次/秒，錯誤 %d%n", lookupCount, lookupCount / (elapsed / 1e9), misses.get());
+        store.close();
+
+        start = System.nanoTime();
+        IndexedAccountStore reopened = IndexedAccountStore.open(dir);
+        System.out.printf("重新開啟 (沿用索引): %.1f ms，%d 個帳號%n", (System.nanoTime() - start) / 1e6, reopened.size());
+        reopened.close();
+
+        // 刪掉索引模擬當機後的啟動
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.idx")) {
+            for (Path p : files) Files.delete(p);
+        }
+        start = System.nanoTime();
+        IndexedAccountStore rebuilt = IndexedAccountStore.open(dir);
+        System.out.printf("重新開啟 (重建索引): %.1f ms，%d 個帳號%n", (System.nanoTime() - start) / 1e6, rebuilt.size());
+        rebuilt.close();
+        System.exit(0);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static void runParallel(int threads, Task task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static void clear(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "accounts-*")) {
+            for (Path p : files) Files.delete(p);
+        }
+    }
+}
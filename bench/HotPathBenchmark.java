@@ -0,0 +1,334 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 每一步遊戲操作的熱路徑微基準測試，不依賴任何外部函式庫。
+ * <p>
+ * 編譯與執行 (於專案根目錄)：
+ * <pre>
+ * javac -encoding UTF-8 -d out src/*.java bench/*.java
+ * java -cp out HotPathBenchmark [--forks=2] [--warmup=5] [--iterations=5] [--time=500] [情境名稱過濾字串]
+ * </pre>
+ * 量測方式比照 JMH：每個情境在獨立的 JVM 中執行 (forks 個，--forks=0 時在本行程內依序執行)，
+ * 避免前一個情境的 JIT 剖析結果影響下一個；每個 JVM 先跑 warmup 輪暖機、再量測 iterations 輪，每輪 time 毫秒。
+ * 回報所有量測輪的平均耗時與 99.9% 信賴區間 (ns/op ± error)，以及平均配置量 (B/op)。
+ * 每批次的結果累加後寫入 volatile 欄位，JIT 無法把被量測的操作當成無用程式碼消除。
+ * 量測期間 System.out 會被導向空串流；伺服器日誌 (ServerLog) 依 -Dlog.level 設定，預設 INFO 時每步的 DEBUG 紀錄不會產生。
+ */
+public class HotPathBenchmark {
+    private static final PrintStream REPORT = System.out;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // 子行程每一輪量測輸出一行：SAMPLE ns/op B/op
+    private static final String SAMPLE = "SAMPLE ";
+
+    // 相當於 JMH 的 Blackhole：每批次的結果寫入 volatile 欄位
+    private static volatile long sink;
+
+    private static int forks = 2;
+    private static int warmupIterations = 5;
+    private static int iterations = 5;
+    private static long iterationNanos = 500_000_000L;
+
+    private static final class Case {
+        final String name;
+        final int players;
+        final Supplier<LongSupplier> setup;
+
+        Case(String name, int players, Supplier<LongSupplier> setup) {
+            this.name = name;
+            this.players = players;
+            this.setup = setup;
+        }
+
+        String id() { return name + "@" + players; }
+    }
+
+    private static List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        for (int players = 2; players <= 4; players++) {
+            int n = players;
+            cases.add(new Case("createCommand", n, () -> createCommand(n)));
+            cases.add(new Case("createCommand(split baseline)", n, () -> createCommandSplit(n)));
+            cases.add(new Case("CallNumberCommand.execute", n, () -> callExecute(n)));
+            cases.add(new Case("GameState.nextTurn", n, () -> nextTurn(n)));
+            cases.add(new Case("Snapshot.forPlayer", n, () -> snapshotForPlayer(n)));
+            cases.add(new Case("broadcastGameState", n, () -> broadcastGameState(n)));
+        }
+        cases.add(new Case("LobbyFeed.publish(5k/1k rooms)", 4, () -> lobbyPublish(5000, 1000)));
+        return cases;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        String child = null;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--forks=")) forks = Integer.parseInt(value);
+            else if (arg.startsWith("--warmup=")) warmupIterations = Integer.parseInt(value);
+            else if (arg.startsWith("--iterations=")) iterations = Integer.parseInt(value);
+            else if (arg.startsWith("--time=")) iterationNanos = Long.parseLong(value) * 1_000_000L;
+            else if (arg.startsWith("--child=")) child = value;
+            else if (arg.startsWith("--")) throw new IllegalArgumentException("未知參數: " + arg);
+            else filter = arg;
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        if (child != null) {
+            for (Case c : cases()) {
+                if (c.id().equals(child)) {
+                    for (double[] sample : measure(c)) REPORT.println(SAMPLE + sample[0] + " " + sample[1]);
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("未知情境: " + child);
+        }
+
+        REPORT.printf("%-32s %8s %12s %10s %10s%n", "benchmark", "players", "ns/op", "± error", "B/op");
+        for (Case c : cases()) {
+            if (!c.name.contains(filter)) continue;
+            List<double[]> samples = forks == 0 ? measure(c) : fork(c);
+            report(c, samples);
+        }
+    }
+
+    private static List<String> playerIds(int n) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < n; i++) ids.add("player" + i);
+        return ids;
+    }
+
+    // --- 情境 ---
+
+    private static LongSupplier createCommand(int players) {
+        GameState state = new GameState(playerIds(players));
+        CommandFactory factory = new CommandFactory();
+        String[] messages = new String[players];
+        for (int i = 0; i < players; i++) messages[i] = "ACTION|player" + i + "|CALL|2";
+        int[] i = { 0 };
+        return () -> {
+            String msg = messages[i[0]++ % players];
+            return factory.createCommand(ProtocolMessage.parse(msg), state).hashCode();
+        };
+    }
+
+    // 改用 ProtocolMessage 之前的作法：以 split("\\|") 切出 String[] 再比對欄位，作為 createCommand 的對照組
+    private static LongSupplier createCommandSplit(int players) {
+        GameState state = new GameState(playerIds(players));
+        String[] messages = new String[players];
+        for (int i = 0; i < players; i++) messages[i] = "ACTION|player" + i + "|CALL|2";
+        int[] i = { 0 };
+        return () -> {
+            String[] parts = messages[i[0]++ % players].split("\\|");
+            if (!parts[0].equals("ACTION")) return 0;
+            int seat = state.seatOf(parts[1]);
+            GameCommand command;
+            switch (parts[2]) {
+                case "CALL": command = new CallNumberCommand(parts[1], seat, Integer.parseInt(parts[3])); break;
+                case "PASS": command = new CardCommand.PassCardCommand(parts[1], seat); break;
+                case "RETURN": command = new CardCommand.ReturnCardCommand(parts[1], seat); break;
+                default: command = null;
+            }
+            return command.hashCode();
+        };
+    }
+
+    private static LongSupplier callExecute(int players) {
+        GameState state = new GameState(playerIds(players));
+        return () -> {
+            // 只剩一人時重置，讓每次操作都在進行中的局面上執行
+            if (state.aliveCount() == 1) state.resetGame();
+            int seat = state.currentPlayerIdx;
+            new CallNumberCommand(state.players.get(seat), seat, 1).execute(state);
+            return state.currentNumber;
+        };
+    }
+
+    private static LongSupplier nextTurn(int players) {
+        GameState state = new GameState(playerIds(players));
+        return () -> {
+            state.nextTurn();
+            return state.currentPlayerIdx;
+        };
+    }
+
+    // 建立一份快照並替每位玩家產生完整 UPDATE
+    private static LongSupplier snapshotForPlayer(int players) {
+        GameState state = new GameState(playerIds(players));
+        long[] seq = { 0 };
+        return () -> {
+            GameState.Snapshot snap = state.snapshot(++seq[0]);
+            long total = 0;
+            for (String id : state.players) total += snap.forPlayer(id).length();
+            return total;
+        };
+    }
+
+    private static LongSupplier broadcastGameState(int players) {
+        GameServer server = new GameServer();
+        GameServer.GameRoom room = server.new GameRoom("001", "bench");
+        for (String id : playerIds(players)) {
+            room.addPlayer(new NullHandler(server, id));
+        }
+        room.initGame();
+        return () -> {
+            room.getGameState().nextTurn();
+            server.broadcastGameState(room);
+            return room.getGameState().currentPlayerIdx;
+        };
+    }
+
+    // 大廳異動的扇出：handlers 條連線中坐滿 rooms 間房的人不會收到，其餘在大廳的各收一則
+    private static LongSupplier lobbyPublish(int handlers, int rooms) {
+        GameServer server = new GameServer();
+        List<ClientHandler> all = new ArrayList<>();
+        int seated = 0;
+        for (int r = 0; r < rooms; r++) {
+            GameServer.GameRoom room = server.new GameRoom(String.valueOf(r), "bench");
+            for (int p = 0; p < 4 && seated < handlers; p++, seated++) {
+                NullHandler h = new NullHandler(server, "p" + seated);
+                all.add(h);
+                room.addPlayer(h);
+            }
+        }
+        for (int i = seated; i < handlers; i++) {
+            all.add(new NullHandler(server, "p" + i));
+        }
+        LobbyFeed feed = new LobbyFeed(Runnable::run, all, new ServerMetrics());
+        return () -> {
+            feed.publish("ROOM_UPD|1|001|1", "NEW_ROOM|001|bench|1");
+            return NullHandler.delivered;
+        };
+    }
+
+    // --- 量測 ---
+
+    // 以同一個 java 執行檔、類別路徑與 JVM 參數 (-Dlog.level、-Xmx 等) 啟動子行程，只跑這一個情境
+    private static List<double[]> fork(Case c) throws IOException, InterruptedException {
+        List<double[]> samples = new ArrayList<>();
+        for (int f = 0; f < forks; f++) {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(HotPathBenchmark.class.getName());
+            command.add("--warmup=" + warmupIterations);
+            command.add("--iterations=" + iterations);
+            command.add("--time=" + iterationNanos / 1_000_000L);
+            command.add("--child=" + c.id());
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith(SAMPLE)) continue;
+                    String[] fields = line.substring(SAMPLE.length()).split(" ");
+                    samples.add(new double[] { Double.parseDouble(fields[0]), Double.parseDouble(fields[1]) });
+                }
+            }
+            if (process.waitFor() != 0)
+                throw new IllegalStateException(c.id() + " 的子行程異常結束: " + process.exitValue());
+        }
+        return samples;
+    }
+
+    // 回傳每一量測輪的 { ns/op, B/op }
+    private static List<double[]> measure(Case c) {
+        LongSupplier op = c.setup.get();
+        long batch = calibrate(op);
+        for (int w = 0; w < warmupIterations; w++) iteration(op, batch);
+
+        List<double[]> samples = new ArrayList<>();
+        for (int r = 0; r < iterations; r++) samples.add(iteration(op, batch));
+        return samples;
+    }
+
+    private static double[] iteration(LongSupplier op, long batch) {
+        long tid = Thread.currentThread().getId();
+        long ops = 0;
+        long alloc0 = THREADS.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        long end = t0 + iterationNanos;
+        long now;
+        do {
+            runBatch(op, batch);
+            ops += batch;
+        } while ((now = System.nanoTime()) < end);
+        long alloc1 = THREADS.getThreadAllocatedBytes(tid);
+        return new double[] { (double) (now - t0) / ops, (double) (alloc1 - alloc0) / ops };
+    }
+
+    private static void report(Case c, List<double[]> samples) {
+        int n = samples.size();
+        double mean = 0, bytes = 0;
+        for (double[] s : samples) {
+            mean += s[0];
+            bytes += s[1];
+        }
+        mean /= n;
+        bytes /= n;
+        double variance = 0;
+        for (double[] s : samples) variance += (s[0] - mean) * (s[0] - mean);
+        double error = n > 1 ? studentT999(n - 1) * Math.sqrt(variance / (n - 1) / n) : Double.NaN;
+        REPORT.printf("%-32s %8d %12.1f %10.1f %10.1f%n", c.name, c.players, mean, error, bytes);
+    }
+
+    // 雙尾 99.9% 信賴區間的 t 分位數 (與 JMH 預設的信賴水準相同)
+    private static final double[] T_999 = {
+            636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+            3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+    private static double studentT999(int df) {
+        if (df <= T_999.length) return T_999[df - 1];
+        if (df <= 60) return 3.460;
+        if (df <= 120) return 3.373;
+        return 3.291;
+    }
+
+    // 每批次約 1ms，讓 System.nanoTime 的成本可忽略
+    private static long calibrate(LongSupplier op) {
+        long batch = 1;
+        while (true) {
+            long t0 = System.nanoTime();
+            runBatch(op, batch);
+            if (System.nanoTime() - t0 > 1_000_000L || batch >= 1 << 24) return batch;
+            batch *= 2;
+        }
+    }
+
+    private static void runBatch(LongSupplier op, long n) {
+        long acc = 0;
+        for (long i = 0; i < n; i++) acc += op.getAsLong();
+        sink += acc;
+    }
+
+    /**
+     * 不連線的 ClientHandler：只計數收到的訊息，用來量測伺服器端廣播本身的成本。
+     */
+    private static class NullHandler extends ClientHandler {
+        static long delivered;
+
+        NullHandler(GameServer server, String playerId) {
+            super(server, null);
+            setPlayerId(playerId);
+        }
+
+        @Override
+        public void sendMessage(String message) {
+            delivered += message.length();
+        }
+    }
+}
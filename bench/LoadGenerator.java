@@ -0,0 +1,465 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 無介面的壓力測試工具：以真實 Socket 模擬大量機器人玩家，協定與 GameClient 相同
+ * (REGISTER、LOGIN、CREATE_ROOM、JOIN_ROOM、READY、ACTION|id|CALL|n)。
+ * <p>
+ * 用法 (於專案根目錄編譯後)：
+ * <pre>
+ * java -cp out LoadGenerator [--host=127.0.0.1] [--port=8964] [--bots=1000] [--players=2]
+ *                            [--duration=30] [--connect-rate=500] [--binary] [--delta] [--lobby-feed]
+ *                            [--quick-match]
+ *                            [--virtual] [--start-server] [--server-args="--nio"]
+ * </pre>
+ * 每 {@code players} 個機器人組成一個房間反覆對戰，結束時回報連線建立速率、每秒步數，
+ * 以及每次 ACTION 到收到下一個 UPDATE/DELTA 的延遲 (p50/p99)；伺服器在本機時另以 STATS 指令
+ * 取得量測期間的寫出次數，換算每步 flush 次數。另回報本行程的平台執行緒數與記憶體 (堆積、RSS)；
+ * 使用 --start-server 時伺服器在同一個行程內，數字涵蓋伺服器與機器人兩端。
+ * 加上 {@code --quick-match} 時機器人改以 QUICK_MATCH 排隊 (人數由伺服器配對決定)，
+ * 每局結束就離開房間重新排隊，另外回報排隊到成局的等待時間。
+ * 使用 --start-server 時會在同一個行程內啟動 GameServer (帳號會寫入目前目錄的 users.txt)。
+ */
+public class LoadGenerator {
+    private String host = "127.0.0.1";
+    private int port = 8964;
+    private int bots = 1000;
+    private int playersPerRoom = 2;
+    private int durationSeconds = 30;
+    private int connectRate = 500;
+    private boolean binary = false;
+    private boolean delta = false;
+    private boolean lobbyFeed = false;
+    private boolean quickMatch = false;
+    private boolean virtualThreads = false;
+    private boolean startServer = false;
+    private String serverArgs = "";
+
+    private final String runId = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram updateLatency = new LatencyHistogram();
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+    private final LongAdder matchRequests = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator gen = new LoadGenerator();
+        gen.parseArgs(args);
+        gen.run();
+        System.exit(0);
+    }
+
+    private void parseArgs(String[] args) {
+        for (String arg : args) {
+            String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : "";
+            if (arg.startsWith("--host=")) host = value;
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(value);
+            else if (arg.startsWith("--bots=")) bots = Integer.parseInt(value);
+            else if (arg.startsWith("--players=")) playersPerRoom = Math.max(2, Math.min(4, Integer.parseInt(value)));
+            else if (arg.startsWith("--duration=")) durationSeconds = Integer.parseInt(value);
+            else if (arg.startsWith("--connect-rate=")) connectRate = Integer.parseInt(value);
+            else if (arg.equals("--binary")) binary = true;
+            else if (arg.equals("--delta")) delta = true;
+            else if (arg.equals("--lobby-feed")) lobbyFeed = true;
+            else if (arg.equals("--quick-match")) quickMatch = true;
+            else if (arg.equals("--virtual")) virtualThreads = true;
+            else if (arg.equals("--start-server")) startServer = true;
+            else if (arg.startsWith("--server-args=")) serverArgs = value;
+            else throw new IllegalArgumentException("未知參數: " + arg);
+        }
+        bots -= bots % playersPerRoom;
+    }
+
+    private void run() throws Exception {
+        ResourceSampler resources = new ResourceSampler();
+        resources.start();
+        if (startServer) {
+            startLocalServer();
+        }
+
+        ExecutorService executor = virtualThreads ? GameServer.newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // 依設定的速率建立連線，每組人數的第一位負責開房
+        long start = System.nanoTime();
+        long intervalNanos = connectRate > 0 ? 1_000_000_000L / connectRate : 0;
+        for (int g = 0; g < bots / playersPerRoom; g++) {
+            CompletableFuture<String> roomId = new CompletableFuture<>();
+            for (int seat = 0; seat < playersPerRoom; seat++) {
+                int index = g * playersPerRoom + seat;
+                long due = start + index * intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                futures.add(executor.submit(new Bot("bot" + runId + "_" + index, seat == 0, roomId)));
+            }
+        }
+        long rampNanos = System.nanoTime() - start;
+
+        long measureStart = System.nanoTime();
+        long movesAtStart = moves.sum();
+        long matchRequestsAtStart = matchRequests.sum();
+        Map<String, Long> statsAtStart = fetchServerStats();
+        Thread.sleep(durationSeconds * 1000L);
+        long measureNanos = System.nanoTime() - measureStart;
+        long measuredMoves = moves.sum() - movesAtStart;
+        Map<String, Long> statsAtEnd = fetchServerStats();
+        resources.finish();
+        running = false;
+
+        System.out.println("==== 致命數字壓力測試結果 ====");
+        System.out.printf("機器人: %d (每房 %s 人)，協定: %s%s%s%n", bots,
+                quickMatch ? MatchmakingService.MIN_PLAYERS + "~" + MatchmakingService.MAX_PLAYERS : playersPerRoom,
+                binary ? "BIN1" : "文字", delta ? " + DELTA" : "", lobbyFeed ? " + LOBBY_FEED" : "");
+        System.out.printf("連線成功: %d，失敗: %d，建立耗時 %.2f 秒 (%.0f 連線/秒)%n", connected.get(), failures.get(),
+                rampNanos / 1e9, connected.get() / Math.max(rampNanos / 1e9, 1e-9));
+        System.out.printf("連線+登入延遲 (ms): p50=%.2f p99=%.2f%n",
+                connectLatency.percentile(50) / 1000.0, connectLatency.percentile(99) / 1000.0);
+        System.out.printf("步數: %d，%.0f 步/秒，完成 %d 局%n", measuredMoves, measuredMoves / (measureNanos / 1e9), games.sum());
+        System.out.printf("ACTION→UPDATE 延遲 (ms): p50=%.2f p99=%.2f mean=%.2f (樣本 %d)%n",
+                updateLatency.percentile(50) / 1000.0, updateLatency.percentile(99) / 1000.0,
+                updateLatency.mean() / 1000.0, updateLatency.count());
+        if (quickMatch) {
+            System.out.printf("快速配對: 排隊 %d 次 (%.0f 次/秒)，成局等待 (ms): p50=%.2f p99=%.2f (樣本 %d)%n",
+                    matchRequests.sum() - matchRequestsAtStart,
+                    (matchRequests.sum() - matchRequestsAtStart) / (measureNanos / 1e9),
+                    matchLatency.percentile(50) / 1000.0, matchLatency.percentile(99) / 1000.0, matchLatency.count());
+        }
+        if (!statsAtStart.isEmpty() && !statsAtEnd.isEmpty()) {
+            long serverMoves = delta(statsAtStart, statsAtEnd, "game.moves");
+            long flushes = delta(statsAtStart, statsAtEnd, "send.flushes");
+            long messages = delta(statsAtStart, statsAtEnd, "send.messages");
+            System.out.printf("伺服器寫出: 每步 %.2f 次 flush，每次 flush %.2f 則訊息%n",
+                    (double) flushes / Math.max(1, serverMoves), (double) messages / Math.max(1, flushes));
+        }
+        if (statsAtEnd.containsKey("jvm.threads")) {
+            System.out.printf("伺服器: 平台執行緒 %d (最高 %d)，堆積使用 %.0f MB%n", statsAtEnd.get("jvm.threads"),
+                    statsAtEnd.get("jvm.threads.peak"), statsAtEnd.get("jvm.heap.used") / 1048576.0);
+        }
+        System.out.printf("本行程%s: 平台執行緒 %d (最高 %d)，機器人%s%n", startServer ? " (含伺服器)" : "",
+                resources.threadsAtEnd, resources.peakThreads, virtualThreads ? "在虛擬執行緒上" : "各佔一條平台執行緒");
+        System.out.printf("本行程記憶體 (MB): 堆積最高 %.0f，量測結束 GC 後 %.0f%s%n", resources.peakHeap / 1048576.0,
+                resources.heapAfterGc / 1048576.0,
+                resources.peakRss > 0 ? String.format("，RSS 最高 %.0f", resources.peakRss / 1048576.0) : "");
+        executor.shutdownNow();
+    }
+
+    private static long delta(Map<String, Long> start, Map<String, Long> end, String name) {
+        return end.getOrDefault(name, 0L) - start.getOrDefault(name, 0L);
+    }
+
+    // 以 STATS 管理指令讀取伺服器指標 (只有從本機連線時伺服器才會回應)；取不到時回傳空表
+    private Map<String, Long> fetchServerStats() {
+        Map<String, Long> stats = new HashMap<>();
+        try (Socket s = new Socket(host, port)) {
+            s.setSoTimeout(2000);
+            PrintWriter w = new PrintWriter(s.getOutputStream(), true);
+            BufferedReader r = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            w.println("STATS");
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("ERROR")) break;
+                if (!line.startsWith("STATS_RESULT|")) continue;
+                for (String entry : line.substring("STATS_RESULT|".length()).split(";")) {
+                    int eq = entry.indexOf('=');
+                    if (eq < 0) continue;
+                    try {
+                        stats.put(entry.substring(0, eq), Long.parseLong(entry.substring(eq + 1)));
+                    } catch (NumberFormatException ignored) {
+                        // 平均值等非整數指標略過
+                    }
+                }
+                break;
+            }
+        } catch (IOException e) {
+            // 伺服器不支援或拒絕 STATS 時不影響其他結果
+        }
+        return stats;
+    }
+
+    private void startLocalServer() throws InterruptedException {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(port));
+        // 所有機器人都從本機連入，關掉每個 IP 的驗證頻率限制；量測對象是遊戲路徑，密碼雜湊只做少量迭代
+        // (要量測登入本身時可用 --server-args 覆寫)
+        args.add("--auth-rate=0");
+        args.add("--pbkdf2-iterations=1000");
+        if (!serverArgs.isEmpty()) args.addAll(Arrays.asList(serverArgs.split("\\s+")));
+        Thread t = new Thread(() -> GameServer.main(args.toArray(new String[0])), "local-server");
+        t.setDaemon(true);
+        t.start();
+        // 等待伺服器開始監聽
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("本機伺服器未能啟動");
+    }
+
+    /**
+     * 每 500 ms 取樣本行程的堆積使用量與 RSS (讀 /proc/self/status，非 Linux 時略過) 的最高值；
+     * 平台執行緒數直接取 ThreadMXBean 的最高值 (虛擬執行緒不計入)。
+     */
+    private static class ResourceSampler {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "resource-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        // 取樣執行緒寫入；finish 停止取樣後才由主執行緒讀取
+        private long peakHeap;
+        private long peakRss;
+        int peakThreads;
+        int threadsAtEnd;
+        long heapAfterGc;
+
+        void start() {
+            threads.resetPeakThreadCount();
+            timer.scheduleAtFixedRate(this::sample, 0, 500, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            peakRss = Math.max(peakRss, rss());
+        }
+
+        // 量測結束、機器人仍連線時呼叫：GC 後的堆積即為這些連線實際保留的記憶體
+        void finish() throws InterruptedException {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+            sample();
+            peakThreads = threads.getPeakThreadCount();
+            threadsAtEnd = threads.getThreadCount();
+            System.gc();
+            heapAfterGc = memory.getHeapMemoryUsage().getUsed();
+        }
+
+        private static long rss() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:"))
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            } catch (IOException | NumberFormatException e) {
+                // 非 Linux 或讀不到時不回報 RSS
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 單一機器人：登入、開房或加入、準備，輪到自己就喊數，遊戲結束後由房主重開。
+     * 快速配對模式下改為排隊、自動開局，結束後離開房間重新排隊。
+     */
+    private class Bot implements Runnable {
+        private final String name;
+        private final boolean roomOwner;
+        private final CompletableFuture<String> roomId;
+
+        private Socket socket;
+        private OutputStream rawOut;
+        private PrintWriter out;
+        private BufferedReader in;
+        private InputStream binIn;
+        private BinaryCodec.Encoder encoder;
+        private BinaryCodec.Decoder decoder;
+
+        private int currentNumber;
+        private String currentPlayer = "";
+        private boolean readySent;
+        private long actionSentAt;
+        private long matchRequestedAt;
+        private final Random random = new Random();
+
+        Bot(String name, boolean roomOwner, CompletableFuture<String> roomId) {
+            this.name = name;
+            this.roomOwner = roomOwner;
+            this.roomId = roomId;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long t0 = System.nanoTime();
+                connect();
+                authenticate("REGISTER|" + name + "|pw", "REGISTER_RESULT");
+                authenticate("LOGIN|" + name + "|pw", "LOGIN_SUCCESS");
+                connectLatency.record((System.nanoTime() - t0) / 1000);
+                connected.incrementAndGet();
+
+                if (quickMatch) {
+                    requestMatch();
+                } else if (roomOwner) {
+                    send("CREATE_ROOM|" + name);
+                    roomId.complete(await("CREATE_SUCCESS").split("\\|")[1]);
+                } else {
+                    send("JOIN_ROOM|" + roomId.get(60, TimeUnit.SECONDS));
+                }
+
+                String line;
+                while (running && (line = receive()) != null) {
+                    handle(line);
+                }
+            } catch (Exception e) {
+                if (running) failures.incrementAndGet();
+            } finally {
+                try {
+                    if (socket != null) socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void handle(String line) throws IOException {
+            String[] parts = line.split("\\|", -1);
+            switch (parts[0]) {
+                case "ROOM_STATUS":
+                    // 房間坐滿且自己尚未準備時送出 READY (快速配對由伺服器自動準備)
+                    if (parts.length >= 3 && !readySent && !quickMatch) {
+                        int count = 0;
+                        boolean waiting = false;
+                        for (String p : parts[2].split(";")) {
+                            if (p.isEmpty()) continue;
+                            count++;
+                            if (p.equals(name + ":WAIT")) waiting = true;
+                        }
+                        if (count == playersPerRoom && waiting) {
+                            readySent = true;
+                            send("READY");
+                        }
+                    }
+                    break;
+                case "UPDATE":
+                    onState(Integer.parseInt(parts[1]), parts[3]);
+                    break;
+                case "DELTA":
+                    onState(parts[3].isEmpty() ? currentNumber : Integer.parseInt(parts[3]),
+                            parts[5].isEmpty() ? currentPlayer : parts[5]);
+                    break;
+                case "WINNER":
+                    readySent = false;
+                    actionSentAt = 0;
+                    if (quickMatch) {
+                        if (name.equals(parts[1])) games.increment();
+                        send("LEAVE_ROOM");
+                    } else if (roomOwner) {
+                        games.increment();
+                        send("RESTART");
+                    }
+                    break;
+                case "MATCH_FOUND":
+                    matchLatency.record((System.nanoTime() - matchRequestedAt) / 1000);
+                    break;
+                case "LEAVE_SUCCESS":
+                    if (quickMatch) requestMatch();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void requestMatch() throws IOException {
+            matchRequestedAt = System.nanoTime();
+            matchRequests.increment();
+            send("QUICK_MATCH");
+        }
+
+        private void onState(int number, String player) throws IOException {
+            if (actionSentAt != 0) {
+                updateLatency.record((System.nanoTime() - actionSentAt) / 1000);
+                actionSentAt = 0;
+            }
+            currentNumber = number;
+            currentPlayer = player;
+            if (name.equals(player)) {
+                int max = Math.min(3, 13 - currentNumber);
+                int n = 1 + random.nextInt(Math.max(1, max));
+                actionSentAt = System.nanoTime();
+                send("ACTION|" + name + "|CALL|" + n);
+                moves.increment();
+            }
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            InputStream rawIn = socket.getInputStream();
+            rawOut = new BufferedOutputStream(socket.getOutputStream());
+            out = new PrintWriter(rawOut, true);
+
+            if (binary || delta || lobbyFeed) {
+                List<String> features = new ArrayList<>();
+                if (binary) features.add(BinaryCodec.VERSION);
+                if (delta) features.add("DELTA");
+                if (lobbyFeed) features.add(LobbyFeed.FEATURE);
+                out.println("HELLO|" + String.join(",", features));
+                String line;
+                while ((line = BinaryCodec.readHandshakeLine(rawIn)) != null && !line.startsWith("HELLO_OK")) {
+                    // 握手前的大廳廣播直接略過
+                }
+                if (line != null && line.contains(BinaryCodec.VERSION)) {
+                    encoder = new BinaryCodec.Encoder();
+                    decoder = new BinaryCodec.Decoder();
+                    binIn = new BufferedInputStream(rawIn);
+                    return;
+                }
+            }
+            in = new BufferedReader(new InputStreamReader(rawIn));
+        }
+
+        private void send(String message) throws IOException {
+            if (encoder != null) {
+                encoder.writeFrame(message, rawOut);
+                rawOut.flush();
+            } else {
+                out.println(message);
+            }
+        }
+
+        private String receive() throws IOException {
+            return decoder != null ? decoder.readFrame(binIn) : in.readLine();
+        }
+
+        // 讀到指定類型的訊息為止，中間的其他訊息 (例如大廳廣播) 略過
+        // 伺服器的驗證佇列已滿時 (ERROR|SERVER_BUSY) 稍後重送
+        private void authenticate(String request, String reply) throws IOException, InterruptedException {
+            while (true) {
+                send(request);
+                String line;
+                while ((line = receive()) != null) {
+                    if (line.startsWith(reply)) return;
+                    if (line.startsWith("ERROR|SERVER_BUSY") || line.startsWith("ERROR|RATE_LIMITED")) break;
+                }
+                if (line == null) throw new EOFException("連線在等待 " + reply + " 時中斷");
+                Thread.sleep(50 + random.nextInt(200));
+            }
+        }
+
+        private String await(String type) throws IOException {
+            String line;
+            while ((line = receive()) != null) {
+                if (line.startsWith(type)) return line;
+            }
+            throw new EOFException("連線在等待 " + type + " 時中斷");
+        }
+    }
+}
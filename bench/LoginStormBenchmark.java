@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登入潮的壓力測試，不經過網路，直接以多條執行緒呼叫 AccountManager 的 register / checkLogin / logout。
+ * <p>
+ * 用法 (於專案根目錄編譯後)：
+ * <pre>
+ * java -cp out LoginStormBenchmark [--logins=50000] [--users=5000] [--threads=16] [--iterations=1] [--dir=bench-login]
+ * </pre>
+ * 預設的密碼雜湊只做 1 次迭代，量測的是在線清單與帳號庫的並行度；要量測實際的雜湊成本時調高 {@code iterations}。
+ * 依序回報註冊、登入潮 (隨機帳號登入後立即登出，撞上仍在線的同一帳號時計為重複登入) 的吞吐量與延遲 p50/p99/p99.9，
+ * 最後讓所有執行緒搶登少數帳號且不登出，檢查每個帳號恰好只有一次登入成功。
+ */
+public class LoginStormBenchmark {
+    public static void main(String[] args) throws Exception {
+        int logins = 50_000;
+        int users = 5_000;
+        int threads = 16;
+        int iterations = 1;
+        Path dir = Paths.get("bench-login");
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--logins=")) logins = Integer.parseInt(value);
+            else if (arg.startsWith("--users=")) users = Integer.parseInt(value);
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(value);
+            else if (arg.startsWith("--iterations=")) iterations = Integer.parseInt(value);
+            else if (arg.startsWith("--dir=")) dir = Paths.get(value);
+            else throw new IllegalArgumentException("未知參數: " + arg);
+        }
+        // 每次註冊、登出都會寫一行日誌，量測時關掉
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        clear(dir);
+
+        IndexedAccountStore store = IndexedAccountStore.open(dir);
+        AccountManager accounts = new AccountManager();
+        accounts.setStore(store);
+        accounts.setHashIterations(iterations);
+
+        int userCount = users;
+        AtomicLong next = new AtomicLong();
+        LatencyHistogram registerLatency = new LatencyHistogram();
+        long start = System.nanoTime();
+        runParallel(threads, () -> {
+            long i;
+            while ((i = next.getAndIncrement()) < userCount) {
+                long t0 = System.nanoTime();
+                if (!"SUCCESS".equals(accounts.register("user" + i, "password" + i)))
+                    throw new IllegalStateException("註冊 user" + i + " 失敗");
+                registerLatency.record((System.nanoTime() - t0) / 1000);
+            }
+        });
+        report("註冊", userCount, threads, System.nanoTime() - start, registerLatency);
+
+        int loginCount = logins;
+        AtomicLong remaining = new AtomicLong(loginCount);
+        LongAdder duplicates = new LongAdder();
+        LongAdder failures = new LongAdder();
+        LatencyHistogram loginLatency = new LatencyHistogram();
+        start = System.nanoTime();
+        runParallel(threads, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (remaining.getAndDecrement() > 0) {
+                int i = random.nextInt(userCount);
+                long t0 = System.nanoTime();
+                int status = accounts.checkLogin("user" + i, "password" + i, Thread.currentThread());
+                loginLatency.record((System.nanoTime() - t0) / 1000);
+                if (status == 0) accounts.logout("user" + i, Thread.currentThread());
+                else if (status == 2) duplicates.increment();
+                else failures.increment();
+            }
+        });
+        report("登入潮", loginCount, threads, System.nanoTime() - start, loginLatency);
+        System.out.printf("  重複登入 %d 次，密碼錯誤 %d 次，結束時在線 %d 人%n",
+                duplicates.sum(), failures.sum(), accounts.onlineCount());
+
+        // 搶登：所有執行緒輪流登入同一批帳號，不登出；每個帳號應恰好成功一次
+        int contended = Math.min(userCount, 100);
+        int rounds = 50;
+        LongAdder accepted = new LongAdder();
+        runParallel(threads, () -> {
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < contended; i++) {
+                    if (accounts.checkLogin("user" + i, "password" + i, Thread.currentThread()) == 0)
+                        accepted.increment();
+                }
+            }
+        });
+        System.out.printf("搶登 %d 個帳號 (%d 條執行緒 × %d 輪): 成功 %d 次%s%n", contended, threads, rounds,
+                accepted.sum(), accepted.sum() == contended ? "" : " (錯誤：應為 " + contended + ")");
+
+        store.close();
+        System.exit(accepted.sum() == contended ? 0 : 1);
+    }
+
+    private static void report(String phase, int count, int threads, long elapsedNanos, LatencyHistogram latency) {
+        System.out.printf("%s %d 次 (%d 條執行緒): %.0f 次/秒，延遲 (ms) p50=%.3f p99=%.3f p99.9=%.3f%n",
+                phase, count, threads, count / (elapsedNanos / 1e9),
+                latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static void runParallel(int threads, Task task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static void clear(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "accounts-*")) {
+            for (Path p : files) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 快速配對佇列 (MatchmakingService) 的壓力測試，不經過網路，直接以多條執行緒大量排隊。
+ * <p>
+ * 用法 (於專案根目錄編譯後)：
+ * <pre>
+ * java -cp out MatchmakingBenchmark [--enqueues=50000] [--threads=8] [--rate=0] [--wait=200]
+ * </pre>
+ * {@code rate} 為每秒排隊次數 (0 表示不限速)，{@code wait} 為等待預算 (毫秒)。
+ * 結束時回報排隊吞吐量、成局數與平均人數，以及排隊到成局的等待時間 p50/p99。
+ */
+public class MatchmakingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int enqueues = 50_000;
+        int threads = 8;
+        int rate = 0;
+        long waitMillis = 200;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--enqueues=")) enqueues = Integer.parseInt(value);
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(value);
+            else if (arg.startsWith("--rate=")) rate = Integer.parseInt(value);
+            else if (arg.startsWith("--wait=")) waitMillis = Long.parseLong(value);
+            else throw new IllegalArgumentException("未知參數: " + arg);
+        }
+
+        GameServer server = new GameServer();
+        ServerMetrics metrics = new ServerMetrics();
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        LongAdder seated = new LongAdder();
+        MatchmakingService matchmaking = new MatchmakingService(workers, timer, metrics, waitMillis, players -> {
+            seated.add(players.size());
+            return true;
+        });
+
+        ExecutorService producers = Executors.newFixedThreadPool(threads);
+        AtomicLong next = new AtomicLong();
+        long intervalNanos = rate > 0 ? 1_000_000_000L / rate : 0;
+        int total = enqueues;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            producers.execute(() -> {
+                long i;
+                while ((i = next.getAndIncrement()) < total) {
+                    long due = start + i * intervalNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) pause(wait);
+                    matchmaking.enqueue(new QueuedPlayer(server, "p" + i));
+                }
+            });
+        }
+        producers.shutdown();
+        producers.awaitTermination(10, TimeUnit.MINUTES);
+        long enqueueNanos = System.nanoTime() - start;
+
+        // 最後不足兩人的玩家永遠湊不成局，只等到其餘玩家都成局
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30) + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (seated.sum() < total - 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long totalNanos = System.nanoTime() - start;
+
+        Map<String, String> stats = metrics.snapshot();
+        long formed = Long.parseLong(stats.get("match.formed"));
+        System.out.printf("排隊 %d 次 (%d 條執行緒%s)，等待預算 %d ms%n", total, threads,
+                rate > 0 ? "，限速 " + rate + " 次/秒" : "", waitMillis);
+        System.out.printf("排隊吞吐量: %.0f 次/秒，全部成局耗時 %.2f 秒%n", total / (enqueueNanos / 1e9), totalNanos / 1e9);
+        System.out.printf("成局 %d 次，入座 %d 人，平均每局 %.2f 人%n", formed, seated.sum(),
+                (double) seated.sum() / Math.max(1, formed));
+        System.out.printf("成局等待 (ms): p50=%.2f p99=%.2f%n",
+                Double.parseDouble(stats.get("match.timeToMatch.p50Us")) / 1000.0,
+                Double.parseDouble(stats.get("match.timeToMatch.p99Us")) / 1000.0);
+        System.exit(0);
+    }
+
+    // 限速時的等待：短於 1ms 改為忙等，避免 park 的最小粒度拉長間隔
+    private static void pause(long nanos) {
+        if (nanos > 1_000_000L) {
+            LockSupport.parkNanos(nanos);
+            return;
+        }
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 不連線的排隊玩家：丟棄所有回覆。
+     */
+    private static class QueuedPlayer extends ClientHandler {
+        QueuedPlayer(GameServer server, String playerId) {
+            super(server, null);
+            setPlayerId(playerId);
+        }
+
+        @Override
+        public void sendMessage(String message) {
+        }
+    }
+}
@@ -1,76 +1,143 @@
 import java.io.*;
-import java.util.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class AccountManager {
-    private final String filePath = "users.txt";
-    private Map<String, String> userMap = new HashMap<>();
-    private Set<String> onlineUsers = Collections.synchronizedSet(new HashSet<>());
+    // 舊版帳號檔；改用帳號庫時若帳號庫是空的，會先匯入這份檔案
+    static final String LEGACY_FILE = "users.txt";
+
+    // 帳號資料的儲存方式 (見 openStore)；未指定時第一次使用才開啟舊版帳號檔
+    private volatile AccountStore store;
+    // 密碼一律以加鹽雜湊儲存；舊的明文帳號在下次登入成功時改寫
+    private final PasswordHasher hasher = new PasswordHasher(PasswordHasher.DEFAULT_ITERATIONS);
+    // 在線玩家 → 持有登入資格的連線；以 putIfAbsent 原子地判斷重複登入，登入潮時不必排隊搶同一把鎖，
+    // 登出時只在仍由同一條連線持有才移除 (已被 RESUME 接手的舊連線不會登出新連線)
+    private final ConcurrentMap<String, Object> onlineUsers = new ConcurrentHashMap<>();
+    // 註冊依帳號名稱分段加鎖：同名的註冊依序進行 (後到的不必白算雜湊)，不同名稱互不阻擋
+    private static final int REGISTER_STRIPES = 256;
+    private final ReentrantLock[] registerLocks = new ReentrantLock[REGISTER_STRIPES];
 
     public AccountManager() {
-        loadUsers();
+        for (int i = 0; i < REGISTER_STRIPES; i++) {
+            registerLocks[i] = new ReentrantLock();
+        }
     }
 
-    // 從檔案讀取現有帳號到記憶體
-    private void loadUsers() {
-        File file = new File(filePath);
-        if (!file.exists()) {
-            try { file.createNewFile(); } catch (IOException e) { e.printStackTrace(); }
-            return;
+    /**
+     * 依啟動參數開啟帳號儲存方式：{@code flat} 為舊版的 users.txt，其餘視為帳號庫目錄 ({@link IndexedAccountStore})。
+     * 帳號庫是空的且 users.txt 存在時，先匯入其中的帳號。
+     */
+    static AccountStore openStore(String spec) throws IOException {
+        Path legacy = Paths.get(LEGACY_FILE);
+        if (spec.equals("flat")) {
+            return new FlatFileAccountStore(legacy);
         }
+        IndexedAccountStore indexed = IndexedAccountStore.open(Paths.get(spec));
+        if (indexed.size() == 0 && Files.exists(legacy)) {
+            int imported = indexed.importAll(new FlatFileAccountStore(legacy).entries());
+            ServerLog.info("已從 {} 匯入 {} 個帳號", LEGACY_FILE, imported);
+        }
+        return indexed;
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    userMap.put(parts[0], parts[1]);
-                }
+    // 須在開始接受連線前呼叫
+    public void setStore(AccountStore store) {
+        this.store = store;
+    }
+
+    public void setHashIterations(int iterations) {
+        hasher.setIterations(iterations);
+    }
+
+    private AccountStore store() throws IOException {
+        AccountStore s = store;
+        if (s == null) {
+            synchronized (this) {
+                if (store == null)
+                    store = new FlatFileAccountStore(Paths.get(LEGACY_FILE));
+                s = store;
             }
-        } catch (IOException e) { e.printStackTrace(); }
+        }
+        return s;
     }
 
     // 0: 成功, 1: 密碼錯誤或帳號不存在, 2: 重複登入
-    public synchronized int checkLogin(String username, String password) {
+    // 需計算密碼雜湊，耗時數十到數百毫秒，只在驗證執行緒池 (AuthService) 上呼叫
+    public int checkLogin(String username, String password, Object owner) {
         String cleanName = username.trim().toLowerCase();
-        
-        // 驗證帳號密碼
-        if (!userMap.containsKey(cleanName) || !userMap.get(cleanName).equals(password)) {
-            return 1; 
+
+        // 驗證帳號密碼 (帳號庫自行處理並行查詢，不必持鎖)
+        String stored;
+        try {
+            stored = store().get(cleanName);
+        } catch (IOException e) {
+            ServerLog.error("讀取帳號 {} 失敗", cleanName, e);
+            return 1;
+        }
+        if (!hasher.verify(password, stored)) {
+            return 1;
         }
-        
-        // 檢查是否已經在線上
-        if (onlineUsers.contains(cleanName)) {
-            return 2; 
+        if (hasher.needsRehash(stored)) {
+            migrate(cleanName, password);
         }
-        
-        // 驗證通過，將玩家加入在線清單
-        onlineUsers.add(cleanName);
-        return 0;
+
+        // 驗證通過，加入在線清單；已經在線上時 putIfAbsent 回傳先前的持有者
+        return onlineUsers.putIfAbsent(cleanName, owner) == null ? 0 : 2;
     }
 
-    public void logout(String username) {
-        if (username != null) {
-            onlineUsers.remove(username.trim().toLowerCase());
-            System.out.println("玩家登出，已移出在線清單: " + username);
+    // 明文 (或迭代次數過時) 的密碼改存成新的雜湊；失敗不影響這次登入，下次再試
+    private void migrate(String cleanName, String password) {
+        try {
+            store().update(cleanName, hasher.hash(password));
+            ServerLog.info("[Account] 已將 {} 的密碼改存為雜湊", cleanName);
+        } catch (IOException e) {
+            ServerLog.error("[Account] 改存 {} 的密碼雜湊失敗", cleanName, e);
         }
     }
 
-    // 註冊新帳號
-    public synchronized String register(String username, String password) {
-        String cleanName = username.trim().toLowerCase();
-        if (userMap.containsKey(cleanName)) {
-            System.out.println("[Account] 註冊失敗: " + cleanName + " 已存在");
-            return "EXISTS"; // 帳號已存在
+    // 以工作階段權杖接回時不驗證密碼：不在線上或仍由被取代的 previous 持有時改由 owner 持有；
+    // 已由其他連線登入時回傳 false
+    public boolean claimOnline(String username, Object owner, Object previous) {
+        Object holder = onlineUsers.compute(username.trim().toLowerCase(),
+                (k, current) -> current == null || current == previous ? owner : current);
+        return holder == owner;
+    }
+
+    // 只在帳號仍由 owner 持有時登出
+    public void logout(String username, Object owner) {
+        if (username != null && onlineUsers.remove(username.trim().toLowerCase(), owner)) {
+            ServerLog.info("玩家登出，已移出在線清單: {}", username);
         }
-        
-        userMap.put(cleanName, password);
-        try (PrintWriter out = new PrintWriter(new FileWriter(filePath, true))) {
-            out.println(cleanName + ":" + password);
-            System.out.println("[Account] 註冊成功: " + cleanName);
+    }
+
+    public int onlineCount() {
+        return onlineUsers.size();
+    }
+
+    // 註冊新帳號；同時註冊的人共用帳號庫的 fsync，彼此不必排隊等待磁碟
+    // 與 checkLogin 一樣需計算雜湊，只在驗證執行緒池上呼叫
+    public String register(String username, String password) {
+        String cleanName = username.trim().toLowerCase();
+
+        ReentrantLock stripe = registerLocks[(cleanName.hashCode() & 0x7fffffff) % REGISTER_STRIPES];
+        stripe.lock();
+        try {
+            // 先查一次，已存在就不必計算雜湊 (同名的註冊已由分段鎖排隊，add 仍會再檢查一次)
+            if (store().get(cleanName) != null || !store().add(cleanName, hasher.hash(password))) {
+                ServerLog.info("[Account] 註冊失敗: {} 已存在", cleanName);
+                return "EXISTS"; // 帳號已存在
+            }
+            ServerLog.info("[Account] 註冊成功: {}", cleanName);
             return "SUCCESS";
-        } catch (IOException e) {
-            userMap.remove(cleanName);
+        } catch (IOException | IllegalArgumentException e) {
+            ServerLog.error("[Account] 註冊 {} 失敗", cleanName, e);
             return "ERROR";
+        } finally {
+            stripe.unlock();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 帳號資料的儲存方式，由 {@link AccountManager} 使用。帳號名稱已由呼叫端正規化 (去空白、轉小寫)；
+ * credential 對儲存層而言是不透明的字串。實作須可同時被多條執行緒呼叫。
+ */
+interface AccountStore extends Closeable {
+    /** 帳號不存在時回傳 null。 */
+    String get(String username) throws IOException;
+
+    /** 帳號不存在時新增，並在寫入磁碟後才回傳 true；帳號已存在回傳 false。 */
+    boolean add(String username, String credential) throws IOException;
+
+    /** 更換已存在帳號的 credential；帳號不存在時回傳 false。 */
+    boolean update(String username, String credential) throws IOException;
+
+    int size();
+}
@@ -0,0 +1,118 @@
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登入與註冊的專用執行緒池：密碼雜湊刻意耗費 CPU，不能在連線的讀取執行緒 (或 NIO 事件迴圈) 上執行，
+ * 否則登入潮會拖住所有房間。佇列有上限，滿了就立即拒絕 (呼叫端回覆 {@code ERROR|SERVER_BUSY})；
+ * 另外依來源 IP 以權杖桶限制嘗試頻率 (超過時回覆 {@code ERROR|RATE_LIMITED})。
+ */
+class AuthService {
+    enum Admission { ACCEPTED, BUSY, RATE_LIMITED }
+
+    static final int DEFAULT_QUEUE = 64;
+    static final double DEFAULT_RATE = 2.0;
+    private static final int BURST = 10;
+
+    // 權杖桶：容量 BURST，每秒補充 rate 個；閒置到補滿的桶由定期清理移除
+    private static final class Bucket {
+        private double tokens = BURST;
+        private long lastNanos = System.nanoTime();
+
+        synchronized boolean tryTake(double rate, long now) {
+            tokens = Math.min(BURST, tokens + (now - lastNanos) / 1e9 * rate);
+            lastNanos = now;
+            if (tokens < 1)
+                return false;
+            tokens -= 1;
+            return true;
+        }
+
+        synchronized boolean isIdle(double rate, long now) {
+            return tokens + (now - lastNanos) / 1e9 * rate >= BURST;
+        }
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile double rate = DEFAULT_RATE;
+    private final LongAdder busy;
+    private final LongAdder rateLimited;
+    private final LatencyHistogram waitLatency;
+    private final LatencyHistogram taskLatency;
+    private final ServerMetrics metrics;
+
+    AuthService(ScheduledExecutorService timer, ServerMetrics metrics, int threads, int queueCapacity) {
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "auth-worker-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.metrics = metrics;
+        this.busy = metrics.counter("auth.busy");
+        this.rateLimited = metrics.counter("auth.rateLimited");
+        this.waitLatency = metrics.histogram("auth.wait");
+        this.taskLatency = metrics.histogram("auth.task");
+        metrics.gauge("auth.queueDepth", () -> workers.getQueue().size());
+        timer.scheduleAtFixedRate(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    void setThreads(int threads) {
+        if (threads > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(threads);
+            workers.setCorePoolSize(threads);
+        } else {
+            workers.setCorePoolSize(threads);
+            workers.setMaximumPoolSize(threads);
+        }
+    }
+
+    // 每個 IP 每秒可嘗試的次數 (可短暫連續 BURST 次)；0 表示不限制
+    void setRate(double perSecond) {
+        this.rate = perSecond;
+    }
+
+    /**
+     * 排入一個驗證工作；address 為 null (沒有實體連線) 時不限頻率。
+     */
+    Admission submit(String address, Runnable task) {
+        double r = rate;
+        if (r > 0 && address != null
+                && !buckets.computeIfAbsent(address, a -> new Bucket()).tryTake(r, System.nanoTime())) {
+            rateLimited.increment();
+            return Admission.RATE_LIMITED;
+        }
+        long queued = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                long start = System.nanoTime();
+                metrics.recordSince(waitLatency, queued);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    ServerLog.error("驗證工作失敗", e);
+                } finally {
+                    metrics.recordSince(taskLatency, start);
+                }
+            });
+            return Admission.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            busy.increment();
+            return Admission.BUSY;
+        }
+    }
+
+    private void evictIdle() {
+        double r = rate;
+        long now = System.nanoTime();
+        buckets.values().removeIf(b -> r <= 0 || b.isIdle(r, now));
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 二進位通訊協定 (BIN1)，伺服器與客戶端共用。
+ * <p>
+ * 連線建立後客戶端先以文字送出 {@code HELLO|BIN1}，伺服器回覆 {@code HELLO_OK|BIN1} 後雙方改用二進位框架；
+ * 未送 HELLO 的舊客戶端維持原本的文字協定。客戶端在收到 HELLO_OK 前不可再送出任何訊息。
+ * <p>
+ * 框架格式：varint 長度 + 內容。內容為 1 byte 訊息類型代碼 (0 表示後接字串類型名稱)，
+ * 之後依序為各欄位 token。每個 token 以 1 byte 標頭開始：低 2 位元為 token 之後的分隔符號
+ * (0 結束、1 '|'、2 ';'、3 ':')，其上 2 位元為種類：
+ * <ul>
+ * <li>0：非負整數，以 varint 表示</li>
+ * <li>1：新字串，varint 長度 + UTF-8，並加入本連線的字串表</li>
+ * <li>2：字串表參照，varint 編號 (玩家 ID 等重複字串只在第一次傳完整內容)</li>
+ * <li>3：不加入字串表的字串，varint 長度 + UTF-8</li>
+ * </ul>
+ * 解碼結果與原本的文字訊息完全相同，因此遊戲邏輯不需區分兩種協定。
+ */
+public class BinaryCodec {
+    public static final String VERSION = "BIN1";
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private static final int MAX_INTERN_LENGTH = 24;
+    private static final int MAX_INTERN_ENTRIES = 4096;
+
+    private static final int SEP_END = 0;
+    private static final int SEP_PIPE = 1;
+    private static final int SEP_SEMI = 2;
+    private static final int SEP_COLON = 3;
+    private static final char[] SEP_CHARS = { 0, '|', ';', ':' };
+
+    private static final int KIND_INT = 0;
+    private static final int KIND_NEW = 1;
+    private static final int KIND_REF = 2;
+    private static final int KIND_RAW = 3;
+
+    // 訊息類型代碼表，順序即代碼 (從 1 開始)，只能在尾端追加
+    private static final String[] TYPES = {
+            "LOGIN", "REGISTER", "CREATE_ROOM", "JOIN_ROOM", "GET_ROOMS", "LEAVE_ROOM",
+            "READY", "CANCEL_READY", "ACTION", "RESTART",
+            "LOGIN_SUCCESS", "LOGIN_FAIL", "REGISTER_RESULT", "CREATE_SUCCESS", "NEW_ROOM",
+            "ROOM_STATUS", "UPDATE", "WINNER", "LEAVE_SUCCESS", "ERROR", "HELLO", "HELLO_OK",
+            "DELTA", "SYNC", "STATS", "STATS_RESULT",
+            "ROOM_LIST", "ROOM_SYNCED", "ROOM_ADD", "ROOM_UPD", "ROOM_DEL",
+            "QUICK_MATCH", "QUICK_MATCH_CANCEL", "MATCH_QUEUED", "MATCH_FOUND", "MATCH_CANCELLED", "MATCH_FAIL",
+            "ROOM_RESUMED", "RESUME", "RESUME_OK", "RESUME_FAIL",
+            "PLAYER_STATS"
+    };
+    private static final Map<String, Integer> TYPE_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_CODES.put(TYPES[i], i + 1);
+        }
+    }
+
+    /**
+     * 編碼器：每條連線的送出方向各一個，字串表與對方的 Decoder 同步成長。
+     * 呼叫端須保證編碼順序與實際寫出順序一致。
+     */
+    public static class Encoder {
+        private final Map<String, Integer> interned = new HashMap<>();
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        // 回傳含長度前綴的完整框架
+        public byte[] encode(String message) {
+            pos = 0;
+            int typeEnd = message.indexOf('|');
+            String type = typeEnd < 0 ? message : message.substring(0, typeEnd);
+            Integer code = TYPE_CODES.get(type);
+            if (code != null) {
+                writeByte(code);
+            } else {
+                writeByte(0);
+                writeString(type);
+            }
+
+            if (typeEnd >= 0) {
+                int start = typeEnd + 1;
+                int len = message.length();
+                while (true) {
+                    int end = start;
+                    while (end < len && sepOf(message.charAt(end)) == SEP_END) end++;
+                    int sep = end < len ? sepOf(message.charAt(end)) : SEP_END;
+                    writeToken(message, start, end, sep);
+                    if (end >= len) break;
+                    start = end + 1;
+                }
+            }
+
+            int payload = pos;
+            byte[] frame = new byte[varintSize(payload) + payload];
+            int off = putVarint(frame, 0, payload);
+            System.arraycopy(buf, 0, frame, off, payload);
+            return frame;
+        }
+
+        public void writeFrame(String message, OutputStream out) throws IOException {
+            out.write(encode(message));
+        }
+
+        private void writeToken(String msg, int start, int end, int sep) {
+            if (isSmallUnsigned(msg, start, end)) {
+                writeByte(sep | KIND_INT << 2);
+                writeVarint(Integer.parseInt(msg, start, end, 10));
+                return;
+            }
+
+            String token = msg.substring(start, end);
+            Integer id = interned.get(token);
+            if (id != null) {
+                writeByte(sep | KIND_REF << 2);
+                writeVarint(id);
+                return;
+            }
+
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0 && bytes.length <= MAX_INTERN_LENGTH && interned.size() < MAX_INTERN_ENTRIES) {
+                interned.put(token, interned.size());
+                writeByte(sep | KIND_NEW << 2);
+            } else {
+                writeByte(sep | KIND_RAW << 2);
+            }
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeVarint(int v) {
+            ensure(5);
+            pos = putVarint(buf, pos, v);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    /**
+     * 解碼器：每條連線的接收方向各一個。
+     */
+    public static class Decoder {
+        private final List<String> interned = new ArrayList<>();
+        private int pos;
+
+        // 讀取一個完整框架；串流結束時回傳 null
+        public String readFrame(InputStream in) throws IOException {
+            int len = readVarint(in);
+            if (len < 0) return null;
+            if (len > MAX_FRAME_SIZE) throw new IOException("框架過大: " + len);
+            byte[] payload = new byte[len];
+            int read = 0;
+            while (read < len) {
+                int n = in.read(payload, read, len - read);
+                if (n < 0) throw new EOFException();
+                read += n;
+            }
+            return decode(payload, 0, len);
+        }
+
+        // 解碼不含長度前綴的框架內容
+        public String decode(byte[] data, int off, int len) throws IOException {
+            if (len <= 0) throw new IOException("空框架");
+            int limit = off + len;
+            pos = off;
+            StringBuilder sb = new StringBuilder(len + 16);
+
+            int code = data[pos++] & 0xFF;
+            if (code == 0) {
+                int n = getVarint(data, limit);
+                if (n < 0 || n > limit - pos) throw new IOException("訊息類型長度錯誤");
+                sb.append(new String(data, pos, n, StandardCharsets.UTF_8));
+                pos += n;
+            } else if (code <= TYPES.length) {
+                sb.append(TYPES[code - 1]);
+            } else {
+                throw new IOException("未知的訊息類型代碼: " + code);
+            }
+
+            if (pos < limit) sb.append('|');
+            while (pos < limit) {
+                int header = data[pos++] & 0xFF;
+                int sep = header & 3;
+                int kind = header >> 2;
+                if (kind == KIND_INT) {
+                    sb.append(getVarint(data, limit));
+                } else if (kind == KIND_REF) {
+                    int id = getVarint(data, limit);
+                    if (id >= interned.size()) throw new IOException("字串表參照錯誤: " + id);
+                    sb.append(interned.get(id));
+                } else {
+                    int n = getVarint(data, limit);
+                    if (n < 0 || n > limit - pos) throw new IOException("字串長度錯誤");
+                    // 與編碼端相同的上限，避免惡意連線無限擴大字串表
+                    if (kind == KIND_NEW && (n == 0 || n > MAX_INTERN_LENGTH || interned.size() >= MAX_INTERN_ENTRIES))
+                        throw new IOException("字串表超出上限");
+                    String s = new String(data, pos, n, StandardCharsets.UTF_8);
+                    pos += n;
+                    if (kind == KIND_NEW) interned.add(s);
+                    sb.append(s);
+                }
+                if (sep != SEP_END) sb.append(SEP_CHARS[sep]);
+            }
+            return sb.toString();
+        }
+
+        private int getVarint(byte[] data, int limit) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (pos >= limit) throw new IOException("varint 不完整");
+                int b = data[pos++] & 0xFF;
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("varint 過長");
+        }
+    }
+
+    /**
+     * 從位元組陣列中讀取框架長度前綴 (供非阻塞傳輸使用)。
+     * 回傳 {長度, 前綴位元組數}；資料不足時回傳 null。
+     */
+    public static int[] peekFrameLength(byte[] data, int off, int len) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= len) return null;
+            int b = data[off + i] & 0xFF;
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value > MAX_FRAME_SIZE) throw new IOException("框架過大: " + value);
+                return new int[] { value, i + 1 };
+            }
+        }
+        throw new IOException("varint 過長");
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) return -1;
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("varint 過長");
+    }
+
+    private static int putVarint(byte[] dst, int off, int v) {
+        while ((v & ~0x7F) != 0) {
+            dst[off++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        dst[off++] = (byte) v;
+        return off;
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static int sepOf(char c) {
+        switch (c) {
+            case '|':
+                return SEP_PIPE;
+            case ';':
+                return SEP_SEMI;
+            case ':':
+                return SEP_COLON;
+            default:
+                return SEP_END;
+        }
+    }
+
+    // 只有「無前導零、最多 9 位數」的十進位數字才轉成 varint，確保解碼後字串完全一致
+    private static boolean isSmallUnsigned(String s, int start, int end) {
+        int n = end - start;
+        if (n == 0 || n > 9) return false;
+        if (n > 1 && s.charAt(start) == '0') return false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * 從未緩衝的串流逐位元組讀取一行文字，用於握手階段，避免讀過頭吃掉之後的二進位框架。
+     */
+    public static String readHandshakeLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') break;
+            if (line.size() >= MAX_FRAME_SIZE) throw new IOException("握手訊息過長");
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) return null;
+        byte[] bytes = line.toByteArray();
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') len--;
+        return new String(bytes, 0, len, java.nio.charset.Charset.defaultCharset());
+    }
+}
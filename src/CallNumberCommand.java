@@ -1,12 +1,12 @@
 public class CallNumberCommand implements GameCommand {
     private String playerId;
+    private int seat; // 由 CommandFactory 在建立時解析好的座位
     private int count;
-    private DeathHistoryLogger logger;
 
-    public CallNumberCommand(String playerId, int count, DeathHistoryLogger logger) {
+    public CallNumberCommand(String playerId, int seat, int count) {
         this.playerId = playerId;
+        this.seat = seat;
         this.count = count;
-        this.logger = logger;
     }
 
     @Override
@@ -21,9 +21,10 @@ public class CallNumberCommand implements GameCommand {
             state.currentNumber++;
             
             // 判定是否踩雷
-            if (state.currentNumber == state.getTrap(playerId)) {
-                logger.recordElimination(playerId, state.currentNumber, state.roundCount);
-                state.setPlayerOut(playerId);
+            if (state.currentNumber == state.getTrap(seat)) {
+                // 記在本局的出局紀錄 (黃家柔的模組)，局結束時隨遊戲狀態一起釋放
+                state.deathHistory().recordElimination(seat, state.currentNumber, state.roundCount);
+                state.setPlayerOut(seat);
                 
                 state.currentNumber = 0; 
                 state.nextTurn();
@@ -1,15 +1,19 @@
 public class CardCommand {
     public static class PassCardCommand implements GameCommand {
         private String playerId;
-        public PassCardCommand(String playerId) { this.playerId = playerId; }
+        private int seat;
+        public PassCardCommand(String playerId, int seat) {
+            this.playerId = playerId;
+            this.seat = seat;
+        }
 
         @Override
         public void execute(GameState state) {
-            if (state.usePass(playerId)) {
-                System.out.println(playerId + " 使用了 PASS");
+            if (state.usePass(seat)) {
+                ServerLog.debug("{} 使用了 PASS", playerId);
                 state.nextTurn();
             } else {
-                System.out.println(playerId + " 的 PASS 次數已用完！");
+                ServerLog.debug("{} 的 PASS 次數已用完！", playerId);
             }
         }
         @Override
@@ -18,16 +22,20 @@ public class CardCommand {
 
     public static class ReturnCardCommand implements GameCommand {
         private String playerId;
-        public ReturnCardCommand(String playerId) { this.playerId = playerId; }
+        private int seat;
+        public ReturnCardCommand(String playerId, int seat) {
+            this.playerId = playerId;
+            this.seat = seat;
+        }
 
         @Override
         public void execute(GameState state) {
-            if (state.useReturn(playerId)) {
-                System.out.println(playerId + " 使用了 RETURN");
+            if (state.useReturn(seat)) {
+                ServerLog.debug("{} 使用了 RETURN", playerId);
                 state.isClockwise = !state.isClockwise;
                 state.nextTurn();
             } else {
-                System.out.println(playerId + " 的 RETURN 次數已用完！");
+                ServerLog.debug("{} 的 RETURN 次數已用完！", playerId);
             }
         }
         @Override
@@ -1,64 +1,212 @@
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler implements Runnable {
     private Socket socket;
     private GameServer server;
     private PrintWriter out;
     private BufferedReader in;
-    private String playerId;
+    private InputStream rawIn;
+    private OutputStream rawOut;
+    private volatile String playerId; // 登入完成時由驗證執行緒設定
     private AccountManager accountManager;
+    private volatile GameServer.GameRoom room; // 目前所在房間，由 GameRoom 維護
+    private volatile long lastStateSeq = -1;   // 最近一次送出的遊戲狀態序號
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+
+    // 握手 (HELLO) 只接受連線後的第一則訊息
+    private boolean firstMessage = true;
+    private volatile Set<String> features = Collections.emptySet();
+    // 送出佇列：sendMessage 只排入，由寫出工作成批寫出；編碼器只在寫出工作中使用
+    private final OutboundQueue outbound;
+    private BinaryCodec.Encoder encoder; // 非 null 表示已切換為二進位協定
+    private BinaryCodec.Decoder decoder;
 
     public ClientHandler(Socket socket, GameServer server, AccountManager accountManager) {
         this.socket = socket;
         this.server = server;
         this.accountManager = accountManager;
+        this.outbound = server.newOutboundQueue();
         try {
-            this.out = new PrintWriter(socket.getOutputStream(), true);
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.rawIn = socket.getInputStream();
+            this.rawOut = new BufferedOutputStream(socket.getOutputStream());
+            this.out = new PrintWriter(rawOut, false);
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.error("建立連線串流失敗", e);
         }
     }
 
+    // 給非阻塞傳輸層 (NioTransport) 使用：讀寫由事件迴圈負責，不持有 Socket
+    protected ClientHandler(GameServer server, AccountManager accountManager) {
+        this.server = server;
+        this.accountManager = accountManager;
+        this.outbound = server.newOutboundQueue();
+    }
+
     @Override
     public void run() {
         try {
-            String inputLine;
-            // 直接進入迴圈監聽LOGIN,REGISTER或ACTION
-            while ((inputLine = in.readLine()) != null) {
-                // 將訊息傳給Server處理，並傳入this
-                server.processCommand(inputLine, this);
+            // 第一行不經緩衝讀取：若是 HELLO 並協商成二進位，之後的位元組才不會被 BufferedReader 預先吃掉
+            String firstLine = BinaryCodec.readHandshakeLine(rawIn);
+            if (firstLine != null) {
+                dispatch(firstLine);
+
+                if (decoder != null) {
+                    InputStream binIn = new BufferedInputStream(rawIn);
+                    String message;
+                    while ((message = decoder.readFrame(binIn)) != null) {
+                        dispatch(message);
+                    }
+                } else {
+                    in = new BufferedReader(new InputStreamReader(rawIn));
+                    String inputLine;
+                    // 直接進入迴圈監聽LOGIN,REGISTER或ACTION
+                    while ((inputLine = in.readLine()) != null) {
+                        dispatch(inputLine);
+                    }
+                }
             }
         } catch (IOException e) {
-            System.out.println("玩家 " + (playerId != null ? playerId : "未登入用戶") + " 斷開連線。");
+            ServerLog.info("玩家 {} 斷開連線。", playerId != null ? playerId : "未登入用戶");
         } finally {
-            if (this.playerId != null && accountManager != null) {
-                accountManager.logout(this.playerId);
+            onDisconnect();
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException e) {
+                ServerLog.error("關閉連線失敗", e);
             }
-            cleanup();
         }
     }
 
+    // 將訊息傳給Server處理，並傳入this
+    protected void dispatch(String message) {
+        server.processCommand(message, this);
+        firstMessage = false;
+    }
+
     // 由GameServer呼叫，當登入成功時設定身分
     public void setPlayerId(String id) {
         this.playerId = id;
     }
 
+    // 只排入送出佇列，不在呼叫端執行緒上做任何 I/O；慢速客戶端不會拖住房間或大廳
     public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message); // println 會自動加上換行符號 \n
+        handleOffer(outbound.offer(message));
+    }
+
+    // 以文字送出握手回覆後，雙向改用二進位框架；回覆與切換之間不會插入其他訊息
+    protected void switchToBinary(String reply) {
+        decoder = new BinaryCodec.Decoder();
+        handleOffer(outbound.offerBinarySwitch(reply));
+    }
+
+    private void handleOffer(int flags) {
+        if ((flags & OutboundQueue.RESYNC) != 0) {
+            // 有遊戲狀態被丟棄，下一次廣播改送完整快照
+            lastStateSeq = -1;
+        }
+        if ((flags & OutboundQueue.OVERFLOW) != 0) {
+            ServerLog.warn("玩家 {} 的送出佇列已滿，中斷慢速連線。", playerId != null ? playerId : "未登入用戶");
+            outbound.close();
+            server.getMetrics().increment("send.slowConsumerDisconnects");
+            abortConnection();
+            return;
+        }
+        if ((flags & OutboundQueue.SCHEDULE) != 0 && !SendBatch.defer(this)) {
+            scheduleFlush();
         }
     }
 
-    private void cleanup() {
+    // 安排一次寫出工作；非阻塞傳輸層改由事件迴圈寫出
+    protected void scheduleFlush() {
+        server.getOutboundWriters().execute(this::drainOutbound);
+    }
+
+    // 中斷連線，讀取端的迴圈會因此結束並完成清理
+    protected void abortConnection() {
         try {
-            server.removeHandler(this);
             if (socket != null) socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            // 已經關閉
         }
     }
 
+    protected OutboundQueue getOutbound() { return outbound; }
+
+    int getOutboundDepth() { return outbound.size(); }
+
+    // 寫出工作：一次取走佇列中所有訊息，全部寫入緩衝後只 flush 一次，直到佇列清空
+    private void drainOutbound() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (outbound.drainTo(batch)) {
+                for (String message : batch) {
+                    if (message == OutboundQueue.SWITCH_TO_BINARY) {
+                        out.flush();
+                        encoder = new BinaryCodec.Encoder();
+                    } else if (encoder != null) {
+                        encoder.writeFrame(message, rawOut);
+                    } else {
+                        out.println(message); // println 會自動加上換行符號 \n
+                    }
+                }
+                out.flush();
+                if (out.checkError()) throw new IOException("寫出失敗");
+                server.recordFlush(batch.size());
+                batch.clear();
+            }
+        } catch (IOException e) {
+            // 寫入失敗代表連線已斷，交給讀取端的迴圈結束並清理
+            outbound.close();
+        }
+    }
+
+    boolean isFirstMessage() { return firstMessage; }
+
+    void setFeatures(Set<String> features) { this.features = features; }
+
+    public boolean hasFeature(String feature) { return features.contains(feature); }
+
+    // 連線結束時的共同清理：登出帳號並自伺服器移除，只會執行一次
+    protected void onDisconnect() {
+        if (!disconnected.compareAndSet(false, true)) return;
+        outbound.close();
+        if (this.playerId != null && accountManager != null) {
+            accountManager.logout(this.playerId, this);
+        }
+        server.removeHandler(this);
+    }
+
+    protected GameServer getServer() { return server; }
+
+    boolean isDisconnected() {
+        return disconnected.get();
+    }
+
+    // 來源 IP (驗證頻率限制用)；沒有實體連線時回傳 null
+    protected String getRemoteAddress() {
+        return socket != null ? socket.getInetAddress().getHostAddress() : null;
+    }
+
+    // 是否從本機迴路位址連入，管理指令 (STATS) 只接受這類連線
+    protected boolean isLoopback() {
+        return socket != null && socket.getInetAddress().isLoopbackAddress();
+    }
+
+    // 沒有連線、只替離線玩家保留座位 (見 DetachedSeat)
+    boolean isDetached() {
+        return false;
+    }
+
     public String getPlayerId() { return playerId; }
+
+    GameServer.GameRoom getRoom() { return room; }
+
+    void setRoom(GameServer.GameRoom room) { this.room = room; }
+
+    long getLastStateSeq() { return lastStateSeq; }
+
+    void setLastStateSeq(long seq) { this.lastStateSeq = seq; }
 }
\ No newline at end of file
@@ -1,36 +1,37 @@
 public class CommandFactory {
-    private DeathHistoryLogger logger; // 引用黃家柔的模組
-
-    public CommandFactory(DeathHistoryLogger logger) {
-        this.logger = logger;
+    // 出局紀錄屬於每一局 (GameState.deathHistory)，工廠本身不持有狀態，所有房間共用一個
+    public CommandFactory() {
     }
 
     // 解析字串並生成對應物件
-    public GameCommand createCommand(String message) {
+    public GameCommand createCommand(String message, GameState state) {
+        return createCommand(ProtocolMessage.parse(message), state);
+    }
+
+    // 直接使用已解析過的訊息：欄位比對與數字解析都在原字串上完成，不再分割字串；
+    // 玩家 ID 在這裡就轉成座位，指令執行時只需存取陣列
+    public GameCommand createCommand(ProtocolMessage message, GameState state) {
         try {
-            // 在 Java 中，管道符號 | 是特殊字元，必須使用 \\| 進行分割
-            String[] parts = message.split("\\|");
-            
-            if (!parts[0].equals("ACTION")) return null;
+            if (!message.isType("ACTION")) return null;
 
-            String playerId = parts[1];
-            String type = parts[2];
+            String playerId = message.field(1);
+            int seat = state.seatOf(playerId);
+            if (seat < 0) return null;
 
-            switch (type) {
-                case "CALL":
-                    int value = Integer.parseInt(parts[3]);
-                    // 建立喊數指令並帶入 Logger 進行紀錄
-                    return new CallNumberCommand(playerId, value, logger);
-                case "PASS":
-                    return new CardCommand.PassCardCommand(playerId);
-                case "RETURN":
-                    return new CardCommand.ReturnCardCommand(playerId);
-                default:
-                    System.out.println("未知指令類型: " + type);
-                    return null;
+            if (message.fieldEquals(2, "CALL")) {
+                // 建立喊數指令，出局時記入本局的 DeathHistoryLogger
+                return new CallNumberCommand(playerId, seat, message.intField(3));
             }
+            if (message.fieldEquals(2, "PASS")) {
+                return new CardCommand.PassCardCommand(playerId, seat);
+            }
+            if (message.fieldEquals(2, "RETURN")) {
+                return new CardCommand.ReturnCardCommand(playerId, seat);
+            }
+            ServerLog.info("未知指令類型: {}", message.field(2));
+            return null;
         } catch (Exception e) {
-            System.out.println("指令解析失敗: " + message);
+            ServerLog.info("指令解析失敗: {}", message);
             return null;
         }
     }
@@ -0,0 +1,92 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已結束對局的出局紀錄歷史檔 ({@code --death-history=FILE} 啟用)，只追加、一局一行，供事後查閱：
+ * <pre>
+ * 結束時間(毫秒)|房號|贏家|輪數|玩家(,分隔，索引即座位)|出局紀錄 (DeathHistoryLogger.encode)
+ * </pre>
+ * 房間信箱只組好字串放進佇列；背景執行緒 (death-history-writer) 整批寫出後 flush 一次。
+ * 歷史不用於復原，不 fsync；佇列滿時捨棄並計數 (deathHistory.dropped)，不拖慢遊戲。
+ */
+class DeathHistoryArchive {
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder archived;
+    private final LongAdder dropped;
+    private volatile boolean enabled;
+    private BufferedWriter out;
+
+    DeathHistoryArchive(ServerMetrics metrics) {
+        this.archived = metrics.counter("deathHistory.archived");
+        this.dropped = metrics.counter("deathHistory.dropped");
+    }
+
+    void open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        enabled = true;
+
+        Thread writer = new Thread(this::writeLoop, "death-history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "death-history-flush"));
+    }
+
+    // 在房間信箱內、清除遊戲狀態之前呼叫；未啟用時直接返回，不組字串
+    void gameEnded(String roomId, String winnerId, GameState state) {
+        if (!enabled) return;
+        String record = System.currentTimeMillis() + "|" + roomId + "|" + winnerId + "|" + state.roundCount + "|"
+                + String.join(",", state.players) + "|" + state.deathHistory().encode();
+        if (!queue.offer(record)) dropped.increment();
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                String first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private synchronized void write(List<String> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            for (String record : batch) {
+                out.write(record);
+                out.newLine();
+            }
+            out.flush();
+            archived.add(batch.size());
+        } catch (IOException e) {
+            ServerLog.error("寫入出局歷史檔失敗", e);
+        }
+    }
+}
@@ -1,20 +1,75 @@
-import java.util.*;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * 一局遊戲的出局紀錄，由 {@link GameState} 持有，隨該局一起釋放。
+ * <p>
+ * 每筆出局以基本型別打包成一個 long (輪數、陷阱、座位)，依出局順序存放；一局最多每個座位出局一次，
+ * 陣列大小固定為座位數，不會隨伺服器執行時間成長。只在房間信箱內存取，不需同步。
+ */
 public class DeathHistoryLogger {
-    private Map<String, String> deathNotes = new HashMap<>();
+    private static final int SEAT_BITS = 8;
+    private static final int TRAP_BITS = 8;
 
-    public void recordElimination(String playerId, int trapNumber, int currentCount) {
-        String reason = "在第 " + currentCount + " 輪喊到 " + trapNumber + "，不幸踩中陷阱！";
-        deathNotes.put(playerId, reason);
-        System.out.println("[Logger] 紀錄出局: " + playerId + " -> " + reason);
+    private final long[] entries;
+    private int size;
+
+    public DeathHistoryLogger(int seats) {
+        this.entries = new long[seats];
+    }
+
+    public void recordElimination(int seat, int trapNumber, int round) {
+        if (size == entries.length)
+            return; // 同一座位不會出局兩次，只在紀錄損毀時發生
+        entries[size++] = (long) round << (SEAT_BITS + TRAP_BITS) | (long) trapNumber << SEAT_BITS | seat;
+        ServerLog.debug("[Logger] 紀錄出局: 座位 {} 在第 {} 輪踩中陷阱", seat, round);
+    }
+
+    public int size() { return size; }
+
+    public int seat(int i) { return (int) (entries[i] & 0xFF); }
+
+    public int trap(int i) { return (int) (entries[i] >>> SEAT_BITS & 0xFF); }
+
+    public int round(int i) { return (int) (entries[i] >>> (SEAT_BITS + TRAP_BITS)); }
+
+    public void clear() {
+        Arrays.fill(entries, 0, size, 0);
+        size = 0;
+    }
+
+    /**
+     * WINNER 訊息的出局說明，依出局順序：{@code 玩家:在第 N 輪喊到 T，不幸踩中陷阱！;...}
+     */
+    public String describe(List<String> players) {
+        if (size == 0) return "無人出局";
+        StringBuilder sb = new StringBuilder(size * 32);
+        for (int i = 0; i < size; i++) {
+            sb.append(players.get(seat(i))).append(":")
+              .append("在第 ").append(round(i)).append(" 輪喊到 ").append(trap(i)).append("，不幸踩中陷阱！;");
+        }
+        return sb.toString();
     }
 
-    public String getAllDeathReasons() {
-        if (deathNotes.isEmpty()) return "無人出局";
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, String> entry : deathNotes.entrySet()) {
-            sb.append(entry.getKey()).append(":").append(entry.getValue()).append(";");
+    /**
+     * 日誌與歷史檔用的精簡格式：{@code 座位:陷阱:輪數}，以 ',' 分隔；沒有出局時為空字串。
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder(size * 8);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(seat(i)).append(':').append(trap(i)).append(':').append(round(i));
         }
         return sb.toString();
     }
+
+    public void decode(String encoded) {
+        clear();
+        if (encoded.isEmpty())
+            return;
+        for (String entry : encoded.split(",")) {
+            String[] f = entry.split(":");
+            recordElimination(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+/**
+ * 替目前沒有連線的玩家保留房間座位，例如當機復原後重建的房間。
+ * 送給它的訊息一律丟棄；玩家重新登入時由 GameRoom.rebind 換成真正的連線。
+ */
+class DetachedSeat extends ClientHandler {
+    DetachedSeat(GameServer server, String playerId) {
+        super(server, null);
+        setPlayerId(playerId);
+    }
+
+    @Override
+    public void sendMessage(String message) {
+    }
+
+    @Override
+    boolean isDetached() {
+        return true;
+    }
+}
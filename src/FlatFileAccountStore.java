@@ -0,0 +1,119 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 舊版的帳號檔 (users.txt，每行 {@code 帳號:密碼})：啟動時整份讀進記憶體，新帳號追加到檔尾。
+ * 只為相容保留 ({@code --accounts=flat})；帳號多時改用 {@link IndexedAccountStore}。
+ */
+class FlatFileAccountStore implements AccountStore {
+    private final Path file;
+    private final Map<String, String> userMap = new HashMap<>();
+    // 寫檔時持鎖，使用 ReentrantLock 讓等待 I/O 的虛擬執行緒可以卸載
+    private final ReentrantLock lock = new ReentrantLock();
+
+    FlatFileAccountStore(Path file) throws IOException {
+        this.file = file;
+        if (!Files.exists(file)) {
+            Files.createFile(file);
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length == 2) {
+                    userMap.put(parts[0], parts[1]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String get(String username) {
+        lock.lock();
+        try {
+            return userMap.get(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean add(String username, String credential) throws IOException {
+        lock.lock();
+        try {
+            if (userMap.containsKey(username))
+                return false;
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(username + ":" + credential);
+                out.newLine();
+            }
+            userMap.put(username, credential);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 整份重寫：舊格式沒有辦法只改一行
+    @Override
+    public boolean update(String username, String credential) throws IOException {
+        lock.lock();
+        try {
+            if (!userMap.containsKey(username))
+                return false;
+            String previous = userMap.put(username, credential);
+            List<String> lines = new ArrayList<>(userMap.size());
+            for (Map.Entry<String, String> e : userMap.entrySet()) {
+                lines.add(e.getKey() + ":" + e.getValue());
+            }
+            try {
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(tmp, lines, StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                userMap.put(username, previous);
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return userMap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 讀出所有帳號 (匯入新的儲存方式時使用)
+    Map<String, String> entries() {
+        lock.lock();
+        try {
+            return new HashMap<>(userMap);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,14 +1,35 @@
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.*;
 
 public class GameClient {
+    // 斷線後以權杖重新連線的嘗試次數與間隔 (伺服器預設保留座位 30 秒)
+    private static final int RESUME_ATTEMPTS = 10;
+    private static final long RESUME_RETRY_MILLIS = 2000;
+
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in;
+    private InputStream rawIn;
+    private OutputStream rawOut;
+    // 伺服器同意二進位協定時才會建立
+    private BinaryCodec.Encoder encoder;
+    private BinaryCodec.Decoder decoder;
+    // 最近一次完整的 UPDATE 欄位與序號，收到 DELTA 時以此為基準套用差異 (只在 EDT 上讀寫)
+    private String[] lastUpdate;
+    private long lastStateSeq = -1;
+    // 伺服器支援 LOBBY_FEED 時，大廳列表只收增量事件；版本與同步狀態只在 EDT 上讀寫
+    private boolean lobbyFeed;
+    private long lobbyVersion = -1;
+    private boolean lobbySyncPending;
     private String serverIP;
     private int port;
     private String myUserName;
+    // 登入或 RESUME 成功時伺服器發給的權杖，斷線後用來接回原本的座位
+    private volatile String sessionToken;
     private MainFrame mainFrame;
 
     public GameClient(String serverIP, int port) {
@@ -23,29 +44,120 @@ public class GameClient {
 
     private void connect() {
         try {
-            socket = new Socket(serverIP, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            openConnection();
             new Thread(this::listen).start();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(null, "無法連線至伺服器。");
         }
     }
 
-    public void sendMessage(String msg) {
-        if (out != null)
-            out.println(msg);
+    // 建立連線並完成握手；持有鎖期間 sendMessage 會等到新連線可用
+    private synchronized void openConnection() throws IOException {
+        encoder = null;
+        decoder = null;
+        in = null;
+        socket = new Socket(serverIP, port);
+        rawIn = socket.getInputStream();
+        rawOut = new BufferedOutputStream(socket.getOutputStream());
+        out = new PrintWriter(rawOut, true);
+        if (!negotiate()) {
+            in = new BufferedReader(new InputStreamReader(rawIn));
+        }
     }
 
-    private void listen() {
+    // 送出 HELLO 並等待 HELLO_OK，回傳是否改用二進位協定；舊版伺服器不會回覆，逾時後沿用文字協定
+    private boolean negotiate() throws IOException {
+        out.println("HELLO|" + BinaryCodec.VERSION + ",DELTA," + LobbyFeed.FEATURE);
+        socket.setSoTimeout(2000);
         try {
             String line;
-            while ((line = in.readLine()) != null) {
-                handleServerMessage(line);
+            while ((line = BinaryCodec.readHandshakeLine(rawIn)) != null) {
+                // 握手完成前收到的其他訊息 (例如大廳廣播) 直接略過，登入後會重新取得
+                if (!line.startsWith("HELLO_OK"))
+                    continue;
+                String[] parts = line.split("\\|");
+                // 伺服器接受 DELTA 後會改送差異，客戶端不需另外記錄
+                List<String> accepted = parts.length > 1 ? Arrays.asList(parts[1].split(",")) : List.of();
+                lobbyFeed = accepted.contains(LobbyFeed.FEATURE);
+                if (accepted.contains(BinaryCodec.VERSION)) {
+                    encoder = new BinaryCodec.Encoder();
+                    decoder = new BinaryCodec.Decoder();
+                    return true;
+                }
+                return false;
+            }
+            return false;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    public synchronized void sendMessage(String msg) {
+        if (out == null)
+            return;
+        if (encoder != null) {
+            try {
+                encoder.writeFrame(msg, rawOut);
+                rawOut.flush();
+            } catch (IOException e) {
+                System.out.println("訊息送出失敗。");
+            }
+        } else {
+            out.println(msg);
+        }
+    }
+
+    private void listen() {
+        do {
+            try {
+                String line;
+                if (decoder != null) {
+                    InputStream binIn = new BufferedInputStream(rawIn);
+                    while ((line = decoder.readFrame(binIn)) != null) {
+                        handleServerMessage(line);
+                    }
+                } else {
+                    while ((line = in.readLine()) != null) {
+                        handleServerMessage(line);
+                    }
+                }
+            } catch (IOException e) {
+                // 與伺服器關閉連線同樣處理
             }
-        } catch (IOException e) {
             System.out.println("連線中斷。");
+        } while (resumeSession());
+    }
+
+    // 已登入時以權杖重新連線並送出 RESUME，伺服器會接回座位並補送目前狀態；回傳是否已重新連上
+    private boolean resumeSession() {
+        String token = sessionToken;
+        if (token == null)
+            return false;
+        synchronized (this) {
+            // 重新連上之前的操作直接丟棄
+            out = null;
         }
+        for (int attempt = 1; attempt <= RESUME_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(RESUME_RETRY_MILLIS);
+                openConnection();
+                sendMessage("RESUME|" + token);
+                return true;
+            } catch (IOException e) {
+                System.out.println("重新連線失敗 (" + attempt + "/" + RESUME_ATTEMPTS + ")");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        sessionToken = null;
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(mainFrame, "與伺服器的連線中斷。");
+            mainFrame.showPanel("AUTH");
+        });
+        return false;
     }
 
     private void handleServerMessage(String message) {
@@ -56,17 +168,38 @@ public class GameClient {
             switch (type) {
                 case "LOGIN_SUCCESS":
                     this.myUserName = parts[1];
+                    this.sessionToken = parts.length > 2 ? parts[2] : null;
                     mainFrame.showPanel("LOBBY");
-                    sendMessage("GET_ROOMS");
+                    enterLobby();
+                    break;
+
+                case "RESUME_OK":
+                    // 換發新權杖；座位仍在時接著會收到 ROOM_RESUMED 與遊戲狀態，否則回到大廳
+                    this.myUserName = parts[1];
+                    this.sessionToken = parts[2];
+                    lastStateSeq = -1;
+                    if ("0".equals(parts[3])) {
+                        mainFrame.showPanel("LOBBY");
+                        enterLobby();
+                    }
+                    break;
+
+                case "RESUME_FAIL":
+                    sessionToken = null;
+                    JOptionPane.showMessageDialog(mainFrame, "連線已逾時，請重新登入。");
+                    mainFrame.showPanel("AUTH");
                     break;
 
                 case "CREATE_SUCCESS":
+                    // 自行開房或加入房間時，伺服器會一併取消快速配對
+                    mainFrame.setMatchQueued(false, 0);
                     mainFrame.setWaitingRoomName(parts[2]);
                     mainFrame.showPanel("WAITING");
                     break;
 
                 case "ROOM_STATUS":
                     if (parts.length >= 3) {
+                        mainFrame.setMatchQueued(false, 0);
                         mainFrame.setWaitingRoomName(parts[1]);
                         mainFrame.updateWaitingStatus(parts[2]);
                     }
@@ -76,23 +209,178 @@ public class GameClient {
                     mainFrame.addRoom(parts[1], parts[2], Integer.parseInt(parts[3]));
                     break;
 
+                case "MATCH_QUEUED":
+                    mainFrame.setMatchQueued(true, Integer.parseInt(parts[1]));
+                    break;
+
+                case "MATCH_CANCELLED":
+                    mainFrame.setMatchQueued(false, 0);
+                    break;
+
+                case "MATCH_FAIL":
+                    mainFrame.setMatchQueued(false, 0);
+                    JOptionPane.showMessageDialog(mainFrame, parts.length > 1 ? parts[1] : "配對失敗", "快速配對",
+                            JOptionPane.WARNING_MESSAGE);
+                    break;
+
+                case "ROOM_RESUMED":
+                    // 伺服器替我們保留了座位 (例如重新啟動後)：回到房間，進行中的遊戲會接著收到 UPDATE
+                    mainFrame.setWaitingRoomName(parts[2]);
+                    mainFrame.showPanel("WAITING");
+                    break;
+
+                case "MATCH_FOUND":
+                    // 遊戲會自動開始，先進入等待室直到收到第一個 UPDATE
+                    mainFrame.setMatchQueued(false, 0);
+                    mainFrame.setWaitingRoomName(parts[2]);
+                    mainFrame.showPanel("WAITING");
+                    break;
+
+                case "ROOM_LIST":
+                    applyRoomList(parts);
+                    break;
+
+                case "ROOM_SYNCED":
+                    lobbyVersion = Long.parseLong(parts[1]);
+                    lobbySyncPending = false;
+                    break;
+
+                case "ROOM_ADD":
+                case "ROOM_UPD":
+                case "ROOM_DEL":
+                    applyRoomEvent(parts);
+                    break;
+
                 case "UPDATE":
+                    lastUpdate = message.split("\\|", -1);
+                    lastStateSeq = lastUpdate.length > 8 ? Long.parseLong(lastUpdate[8]) : -1;
                     mainFrame.enterGame(myUserName);
                     mainFrame.updateUI(message);
                     break;
 
+                case "DELTA":
+                    String full = applyDelta(message.split("\\|", -1));
+                    if (full == null) {
+                        // 沒有基準或序號不連續，請伺服器重送完整狀態
+                        sendMessage("SYNC");
+                        break;
+                    }
+                    mainFrame.enterGame(myUserName);
+                    mainFrame.updateUI(full);
+                    break;
+
                 case "WINNER":
                     mainFrame.triggerWinnerDialog(message);
                     break;
 
                 case "LEAVE_SUCCESS":
                     mainFrame.showPanel("LOBBY");
-                    sendMessage("GET_ROOMS");
+                    requestRoomList(true);
                     break;
             }
         });
     }
 
+    // 登入 (或接回工作階段) 後進入大廳：伺服器已自動送出列表快照，舊協定則主動要求
+    private void enterLobby() {
+        if (lobbyFeed) {
+            lobbyVersion = -1;
+            lobbySyncPending = true;
+        } else {
+            sendMessage("GET_ROOMS");
+        }
+    }
+
+    /**
+     * 要求房間列表。支援 LOBBY_FEED 時 useCache 為 true 會附上已知版本，伺服器版本相同就不重送；
+     * 快照到齊前收到的增量事件一律略過 (它們的版本都不會比快照新)。只在 EDT 上呼叫。
+     */
+    public void requestRoomList(boolean useCache) {
+        if (!lobbyFeed) {
+            sendMessage("GET_ROOMS");
+            return;
+        }
+        lobbySyncPending = true;
+        sendMessage(useCache && lobbyVersion >= 0 ? "GET_ROOMS|" + lobbyVersion : "GET_ROOMS");
+    }
+
+    // ROOM_LIST|版本|頁次|是否最後一頁|房號|名稱|人數|...
+    private void applyRoomList(String[] parts) {
+        int page = Integer.parseInt(parts[2]);
+        List<RoomInfo> rooms = new ArrayList<>();
+        for (int i = 4; i + 2 < parts.length; i += 3) {
+            rooms.add(new RoomInfo(parts[i], parts[i + 1], Integer.parseInt(parts[i + 2])));
+        }
+        if (page == 0) {
+            lobbyVersion = Long.parseLong(parts[1]);
+        }
+        mainFrame.applyRoomList(page == 0, rooms);
+        if ("1".equals(parts[3])) {
+            lobbySyncPending = false;
+        }
+    }
+
+    // ROOM_ADD|版本|房號|名稱|人數、ROOM_UPD|版本|房號|人數、ROOM_DEL|版本|房號；版本跳號時重新同步
+    private void applyRoomEvent(String[] parts) {
+        if (lobbySyncPending)
+            return;
+        long version = Long.parseLong(parts[1]);
+        if (version <= lobbyVersion)
+            return;
+        if (version != lobbyVersion + 1) {
+            requestRoomList(true);
+            return;
+        }
+        lobbyVersion = version;
+        switch (parts[0]) {
+            case "ROOM_ADD":
+                mainFrame.addRoom(parts[2], parts[3], Integer.parseInt(parts[4]));
+                break;
+            case "ROOM_UPD":
+                mainFrame.addRoom(parts[2], null, Integer.parseInt(parts[3]));
+                break;
+            default:
+                mainFrame.addRoom(parts[2], null, 0);
+                break;
+        }
+    }
+
+    /**
+     * 將 DELTA 套用到上一份 UPDATE，回傳重建後的完整 UPDATE 字串 (GameUI 沿用同一種格式)。
+     * DELTA|基準序號|序號|目前數字|方向|當前玩家|存活狀態|輪數|return次數|pass次數，空欄位表示未變動。
+     * 基準序號必須等於目前持有的序號 (中間沒有漏收)，否則回傳 null 由呼叫端送出 SYNC
+     */
+    private String applyDelta(String[] delta) {
+        if (lastUpdate == null || lastUpdate.length < 9 || delta.length < 10)
+            return null;
+        long base = Long.parseLong(delta[1]);
+        long seq = Long.parseLong(delta[2]);
+        if (lastStateSeq < 0 || base != lastStateSeq)
+            return null;
+
+        String[] next = lastUpdate.clone();
+        if (!delta[3].isEmpty()) next[1] = delta[3];
+        if (!delta[4].isEmpty()) next[2] = delta[4];
+        if (!delta[5].isEmpty()) next[3] = delta[5];
+        if (!delta[6].isEmpty()) {
+            String[] flags = delta[6].split(":");
+            String[] players = next[4].split(";");
+            for (int i = 0; i < players.length && i < flags.length; i++) {
+                String[] info = players[i].split(":");
+                players[i] = info[0] + ":" + flags[i] + ":" + info[2];
+            }
+            next[4] = String.join(";", players);
+        }
+        if (!delta[7].isEmpty()) next[5] = delta[7];
+        if (!delta[8].isEmpty()) next[6] = delta[8];
+        if (!delta[9].isEmpty()) next[7] = delta[9];
+        next[8] = delta[2];
+
+        lastUpdate = next;
+        lastStateSeq = seq;
+        return String.join("|", next);
+    }
+
     public String getMyUserName() {
         return myUserName;
     }
@@ -101,7 +389,7 @@ public class GameClient {
         SwingUtilities.invokeLater(() -> {
             if (mainFrame != null) {
                 mainFrame.showPanel("LOBBY");
-                sendMessage("GET_ROOMS");
+                requestRoomList(true);
             }
         });
     }
@@ -1,152 +1,751 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class GameServer {
+    // HELLO 握手時可協商的功能
+    private static final List<String> SUPPORTED_FEATURES = List.of(BinaryCodec.VERSION, "DELTA", LobbyFeed.FEATURE);
+    // 依訊息類型分別統計處理耗時；其餘類型合併為 OTHER，避免客戶端亂送類型造成指標名稱無限增加
+    private static final List<String> COMMAND_TYPES = List.of("HELLO", "LOGIN", "REGISTER", "CREATE_ROOM",
+            "JOIN_ROOM", "GET_ROOMS", "LEAVE_ROOM", "READY", "CANCEL_READY", "ACTION", "SYNC", "RESTART", "STATS",
+            "QUICK_MATCH", "QUICK_MATCH_CANCEL", "RESUME");
+
+    private static final int DEFAULT_MAX_ROOMS = 10000;
+    private static final int MAX_PLAYERS_PER_ROOM = 4;
+    private static final long DEFAULT_MATCH_WAIT_MILLIS = 3000;
+    private static final long DEFAULT_RESUME_GRACE_MILLIS = 30_000;
+
     private List<ClientHandler> handlers = new CopyOnWriteArrayList<>();
     private AccountManager accountManager = new AccountManager();
-    private Map<String, GameRoom> rooms = new ConcurrentHashMap<>();
+    // 房號配置、房間數上限與依狀態分類的索引
+    private final RoomRegistry rooms = new RoomRegistry(DEFAULT_MAX_ROOMS);
+    // 玩家 ID → 所在房間的索引，由 GameRoom.addPlayer / removePlayer 維護
+    private Map<String, GameRoom> playerRooms = new ConcurrentHashMap<>();
+
+    // 出局紀錄屬於每一局 (GameState.deathHistory)，局結束時可寫入歷史檔 (--death-history 啟用)
+    private CommandFactory factory = new CommandFactory();
 
-    private DeathHistoryLogger logger = new DeathHistoryLogger();
-    private CommandFactory factory = new CommandFactory(logger);
+    // 房間指令的共用工作執行緒；每個房間透過自己的 SerialExecutor 依序使用
+    private final ExecutorService roomWorkers = newRoomWorkerPool();
+    // 全伺服器共用的計時器執行緒，所有房間的回合逾時都排在這裡
+    private final ScheduledThreadPoolExecutor timerService = newTimerService();
+    // 遊戲狀態序號，全伺服器遞增，用來判斷客戶端手上的狀態能否套用差異
+    private final AtomicLong stateSeq = new AtomicLong();
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    // 各連線送出佇列的容量與慢速客戶端策略，以及阻塞模式下負責寫出的共用執行緒池
+    private int sendQueueCapacity = 256;
+    private OutboundQueue.Policy slowConsumerPolicy = OutboundQueue.Policy.DROP_STALE;
+    private final ExecutorService outboundWriters = newOutboundWriterPool();
+    private final LongAdder statesDropped = metrics.counter("send.statesDropped");
+    private final LongAdder sendFlushes = metrics.counter("send.flushes");
+    private final LongAdder sendMessages = metrics.counter("send.messages");
+    // 大廳房間列表：房間異動只通知在大廳的連線
+    private final LobbyFeed lobbyFeed = new LobbyFeed(roomWorkers, handlers, metrics);
+    // 房間事件日誌 (--journal 啟用)，當機後以 --recover 重建房間
+    private final RoomJournal journal = new RoomJournal(metrics);
+    private final DeathHistoryArchive deathArchive = new DeathHistoryArchive(metrics);
+    // 已結束對局的紀錄與每位玩家的累計統計 (STATS|玩家)
+    private final MatchHistory matchHistory = new MatchHistory(metrics);
+    // QUICK_MATCH 的配對佇列，成局後直接建房開局
+    private final MatchmakingService matchmaking = new MatchmakingService(roomWorkers, timerService, metrics,
+            DEFAULT_MATCH_WAIT_MILLIS, this::startQuickMatch);
+    // 登入權杖：斷線後在寬限期內保留座位，RESUME 時不必重新驗證密碼
+    private final SessionManager sessions = new SessionManager(timerService, metrics,
+            DEFAULT_RESUME_GRACE_MILLIS, this::expireSession);
+    // LOGIN / REGISTER 的密碼雜湊在這裡執行，回覆於雜湊完成後送出
+    private final AuthService auth = new AuthService(timerService, metrics,
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), AuthService.DEFAULT_QUEUE);
+    private final Map<String, LatencyHistogram> commandLatency = new HashMap<>();
+    private final LatencyHistogram stateBroadcastLatency = metrics.histogram("broadcast.state");
+    private final LatencyHistogram mailboxWaitLatency = metrics.histogram("room.mailboxWait");
+
+    public GameServer() {
+        for (String type : COMMAND_TYPES) {
+            commandLatency.put(type, metrics.histogram("command." + type));
+        }
+        commandLatency.put("OTHER", metrics.histogram("command.OTHER"));
+        metrics.gauge("connections.handlers", handlers::size);
+        metrics.gauge("rooms.active", rooms::size);
+        metrics.gauge("rooms.waiting", () -> rooms.count(RoomRegistry.State.WAITING));
+        metrics.gauge("rooms.full", () -> rooms.count(RoomRegistry.State.FULL));
+        metrics.gauge("rooms.playing", () -> rooms.count(RoomRegistry.State.PLAYING));
+        metrics.gauge("players.inRooms", playerRooms::size);
+        metrics.gauge("players.online", accountManager::onlineCount);
+        metrics.gauge("log.dropped", ServerLog::droppedCount);
+        metrics.gauge("send.queueDepth.total", () -> handlers.stream().mapToLong(ClientHandler::getOutboundDepth).sum());
+        metrics.gauge("send.queueDepth.max", () -> handlers.stream().mapToLong(ClientHandler::getOutboundDepth).max().orElse(0));
+        // 平台執行緒數 (虛擬執行緒不計入) 與堆積用量，用來比較 --virtual、--nio 與每連線一條執行緒的資源用量
+        metrics.gauge("jvm.threads", ManagementFactory.getThreadMXBean()::getThreadCount);
+        metrics.gauge("jvm.threads.peak", ManagementFactory.getThreadMXBean()::getPeakThreadCount);
+        metrics.gauge("jvm.heap.used", () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        metrics.startRates(timerService);
+    }
 
     public static void main(String[] args) {
         GameServer server = new GameServer();
-        server.startServer(8964);
+        int port = 8964;
+        int ioThreads = 0;
+        boolean virtualThreads = false;
+        Path journalDir = null;
+        boolean recover = false;
+        Path deathHistory = null;
+        String accounts = "accounts";
+        String history = "history";
+        for (String arg : args) {
+            if (arg.startsWith("--log-level=")) {
+                ServerLog.setLevel(ServerLog.parseLevel(arg.substring("--log-level=".length())));
+            } else if (arg.startsWith("--send-queue=")) {
+                server.sendQueueCapacity = Integer.parseInt(arg.substring("--send-queue=".length()));
+            } else if (arg.equals("--slow-consumer=disconnect")) {
+                server.slowConsumerPolicy = OutboundQueue.Policy.DISCONNECT;
+            } else if (arg.equals("--slow-consumer=drop")) {
+                server.slowConsumerPolicy = OutboundQueue.Policy.DROP_STALE;
+            } else if (arg.startsWith("--max-rooms=")) {
+                server.rooms.setCapacity(Integer.parseInt(arg.substring("--max-rooms=".length())));
+            } else if (arg.startsWith("--accounts=")) {
+                accounts = arg.substring("--accounts=".length());
+            } else if (arg.startsWith("--journal=")) {
+                journalDir = Paths.get(arg.substring("--journal=".length()));
+            } else if (arg.startsWith("--match-history=")) {
+                history = arg.substring("--match-history=".length());
+            } else if (arg.startsWith("--death-history=")) {
+                deathHistory = Paths.get(arg.substring("--death-history=".length()));
+            } else if (arg.equals("--recover")) {
+                recover = true;
+            } else if (arg.startsWith("--journal-segment-kb=")) {
+                server.journal.setSegmentBytes(Long.parseLong(arg.substring("--journal-segment-kb=".length())) * 1024);
+            } else if (arg.startsWith("--match-wait=")) {
+                server.matchmaking.setMaxWaitMillis(Long.parseLong(arg.substring("--match-wait=".length())));
+            } else if (arg.startsWith("--pbkdf2-iterations=")) {
+                server.accountManager.setHashIterations(Integer.parseInt(arg.substring("--pbkdf2-iterations=".length())));
+            } else if (arg.startsWith("--auth-threads=")) {
+                server.auth.setThreads(Integer.parseInt(arg.substring("--auth-threads=".length())));
+            } else if (arg.startsWith("--auth-rate=")) {
+                server.auth.setRate(Double.parseDouble(arg.substring("--auth-rate=".length())));
+            } else if (arg.startsWith("--resume-grace=")) {
+                server.sessions.setGraceMillis(Long.parseLong(arg.substring("--resume-grace=".length())) * 1000);
+            } else if (arg.startsWith("--stats-port=")) {
+                server.startStatsEndpoint(Integer.parseInt(arg.substring("--stats-port=".length())));
+            } else if (arg.equals("--virtual")) {
+                virtualThreads = true;
+            } else if (arg.equals("--nio")) {
+                ioThreads = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--nio=")) {
+                ioThreads = Integer.parseInt(arg.substring("--nio=".length()));
+            } else {
+                port = Integer.parseInt(arg);
+            }
+        }
+
+        try {
+            server.accountManager.setStore(AccountManager.openStore(accounts));
+        } catch (IOException e) {
+            ServerLog.error("無法開啟帳號庫", e);
+            return;
+        }
+
+        if (journalDir != null) {
+            try {
+                server.openJournal(journalDir, recover);
+            } catch (IOException e) {
+                ServerLog.error("無法開啟房間日誌", e);
+                return;
+            }
+        }
+
+        if (!history.equals("off")) {
+            try {
+                server.matchHistory.open(Paths.get(history));
+            } catch (IOException e) {
+                ServerLog.error("無法開啟對局歷史", e);
+                return;
+            }
+        }
+
+        if (deathHistory != null) {
+            try {
+                server.deathArchive.open(deathHistory);
+            } catch (IOException e) {
+                ServerLog.error("無法開啟出局歷史檔", e);
+                return;
+            }
+        }
+
+        if (ioThreads > 0) {
+            server.startNioServer(port, ioThreads);
+        } else {
+            server.startServer(port, virtualThreads);
+        }
     }
 
     public void startServer(int port) {
+        startServer(port, false);
+    }
+
+    // virtualThreads 為 true 時，每條連線的 ClientHandler.run() 改在虛擬執行緒上執行
+    public void startServer(int port, boolean virtualThreads) {
+        ExecutorService connectionExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("致命數字伺服器已啟動，等待連線中...");
+            ServerLog.info("致命數字伺服器已啟動，等待連線中...");
 
             while (true) {
                 Socket socket = serverSocket.accept();
                 ClientHandler handler = new ClientHandler(socket, this, accountManager);
-                handlers.add(handler);
-                new Thread(handler).start();
-                System.out.println("新玩家連線！目前總在線人數: " + handlers.size());
+                addHandler(handler);
+                if (connectionExecutor != null) {
+                    connectionExecutor.execute(handler);
+                } else {
+                    new Thread(handler).start();
+                }
+            }
+        } catch (Exception e) {
+            ServerLog.error("伺服器異常終止", e);
+        }
+    }
+
+    // JDK 21+ 提供 Executors.newVirtualThreadPerTaskExecutor()；以反射取得以便在舊版 JDK 上仍可編譯執行
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ServerLog.warn("目前 JDK 不支援虛擬執行緒，改用一般執行緒池。");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // 本機 HTTP 指標端點 (http://127.0.0.1:port/stats)，只接受迴路位址連線
+    public void startStatsEndpoint(int port) {
+        try {
+            metrics.startHttp(port);
+            ServerLog.info("指標端點已啟動: http://127.0.0.1:{}/stats", port);
+        } catch (IOException e) {
+            ServerLog.error("指標端點啟動失敗", e);
+        }
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 開啟房間日誌；recover 為 true 時先重播既有日誌重建房間，否則捨棄舊日誌。
+     * 須在開始接受連線前呼叫。
+     */
+    public void openJournal(Path dir, boolean recover) throws IOException {
+        if (recover) {
+            recoverRooms(RoomJournal.replay(dir, factory));
+        } else {
+            RoomJournal.deleteSegments(dir);
+        }
+        journal.open(dir, this::checkpointRooms);
+    }
+
+    // 座位由 DetachedSeat 保留，玩家在寬限期內重新登入時接回，逾期未接回就離開房間；進行中的遊戲照常計時 (逾時自動喊 1)
+    private void recoverRooms(List<RoomJournal.RecoveredRoom> recovered) {
+        int restored = 0;
+        for (RoomJournal.RecoveredRoom r : recovered) {
+            GameRoom room = rooms.restore(r.id, id -> new GameRoom(id, r.name));
+            if (room == null) {
+                ServerLog.warn("無法復原房間 {}: 房號重複或已達上限", r.id);
+                continue;
+            }
+            for (Map.Entry<String, Boolean> seat : r.seats.entrySet()) {
+                room.addPlayer(new DetachedSeat(this, seat.getKey()));
+                room.setReady(seat.getKey(), seat.getValue());
+                sessions.holdRecovered(seat.getKey());
             }
+            if (r.state != null) {
+                room.restoreGame(r.state);
+                room.resetTurnTimer(this);
+            }
+            lobbyFeed.roomChanged(room);
+            restored++;
+        }
+        ServerLog.info("已從日誌復原 {} 個房間", restored);
+    }
+
+    // 換段時由日誌寫出執行緒呼叫：每個房間在自己的信箱內寫一次完整檢查點，全部完成後通知日誌
+    private void checkpointRooms(int segment) {
+        List<GameRoom> live = new ArrayList<>(rooms.all());
+        AtomicInteger pending = new AtomicInteger(live.size() + 1);
+        Runnable done = () -> {
+            if (pending.decrementAndGet() == 0)
+                journal.checkpointDone(segment);
+        };
+        for (GameRoom room : live) {
+            room.execute(() -> {
+                room.writeCheckpoint();
+                done.run();
+            });
+        }
+        done.run();
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(sendQueueCapacity, slowConsumerPolicy, statesDropped);
+    }
+
+    ExecutorService getOutboundWriters() {
+        return outboundWriters;
+    }
+
+    // 每次實際寫出 (一次 flush / 一次 write 呼叫) 時由傳輸層回報
+    void recordFlush(int messages) {
+        sendFlushes.increment();
+        sendMessages.add(messages);
+    }
+
+    // 非阻塞模式：以數個 Selector 事件迴圈取代每條連線一個執行緒
+    public void startNioServer(int port, int ioThreads) {
+        try {
+            new NioTransport(this, accountManager, ioThreads).serve(port);
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerLog.error("伺服器異常終止", e);
         }
     }
 
-    public synchronized void processCommand(String message, ClientHandler sender) {
-        String[] parts = message.split("\\|");
-        String type = parts[0];
+    private static ExecutorService newRoomWorkerPool() {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "room-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 寫出工作可能卡在慢速客戶端的 socket 上，因此用可成長的執行緒池；閒置的執行緒會自動回收
+    private static ExecutorService newOutboundWriterPool() {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "conn-writer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static ScheduledThreadPoolExecutor newTimerService() {
+        ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "turn-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // 每一步都會取消上一個逾時，取消後立即移出佇列以免堆積
+        timers.setRemoveOnCancelPolicy(true);
+        return timers;
+    }
 
-        if (type.equals("LOGIN")) {
-            handleLogin(parts, sender);
+    void addHandler(ClientHandler handler) {
+        handlers.add(handler);
+        metrics.increment("connections.accepted");
+        ServerLog.info("新玩家連線！目前總在線人數: {}", handlers.size());
+    }
+
+    // 大廳指令 (LOGIN、REGISTER、GET_ROOMS、CREATE_ROOM...) 直接在呼叫端執行緒處理；
+    // 房間指令 (ACTION、READY、RESTART、LEAVE_ROOM) 交給該房間的信箱依序執行
+    public void processCommand(String message, ClientHandler sender) {
+        long start = System.nanoTime();
+        // 只解析一次，之後 CommandFactory 直接沿用同一份欄位位置
+        ProtocolMessage msg = ProtocolMessage.parse(message);
+        try {
+            // 這則指令產生的所有訊息 (回覆、大廳廣播) 結束後才統一寫出，每個收件者一次
+            SendBatch.run(() -> handleCommand(msg, sender));
+        } finally {
+            LatencyHistogram h = commandLatency.get(msg.field(0));
+            metrics.recordSince(h != null ? h : commandLatency.get("OTHER"), start);
+        }
+    }
+
+    private void handleCommand(ProtocolMessage msg, ClientHandler sender) {
+        if (msg.isType("HELLO")) {
+            handleHello(msg, sender);
             return;
         }
 
-        if (type.equals("REGISTER")) {
-            String result = accountManager.register(parts[1], parts[2]);
-            sender.sendMessage("REGISTER_RESULT|" + result);
+        if (msg.isType("LOGIN")) {
+            handleLogin(msg, sender);
             return;
         }
 
-        if (type.equals("CREATE_ROOM")) {
-            String rName = parts[1];
-            String rId = String.format("%03d", rooms.size() + 1);
-            GameRoom newRoom = new GameRoom(rId, rName);
-            newRoom.addPlayer(sender);
-            rooms.put(rId, newRoom);
+        if (msg.isType("RESUME")) {
+            handleResume(msg, sender);
+            return;
+        }
 
-            sender.sendMessage("CREATE_SUCCESS|" + rId + "|" + rName);
+        if (msg.isType("STATS") && msg.fieldCount() > 1 && !msg.field(1).isEmpty()) {
+            // STATS|玩家：查詢玩家的累計戰績，任何連線都可查詢
+            sendPlayerStats(sender, msg.field(1));
+            return;
+        }
+
+        if (msg.isType("STATS")) {
+            // 管理指令：只回應從本機迴路位址連入的連線
+            if (sender != null && sender.isLoopback()) {
+                sender.sendMessage(metrics.toProtocolMessage());
+            } else if (sender != null) {
+                sender.sendMessage("ERROR|FORBIDDEN");
+            }
+            return;
+        }
 
-            String lobbyMsg = "NEW_ROOM|" + rId + "|" + rName + "|1";
-            for (ClientHandler h : handlers) {
-                h.sendMessage(lobbyMsg);
+        if (msg.isType("REGISTER")) {
+            if (msg.fieldCount() < 3) {
+                sender.sendMessage("REGISTER_RESULT|ERROR");
+                return;
             }
-            broadcastRoomStatus(newRoom);
-            System.out.println("玩家 " + sender.getPlayerId() + " 建立了房間: " + rId);
+            String username = msg.field(1);
+            String password = msg.field(2);
+            submitAuth(sender, () -> sender.sendMessage("REGISTER_RESULT|" + accountManager.register(username, password)));
+            return;
+        }
+
+        if (msg.isType("QUICK_MATCH")) {
+            if (sender.getPlayerId() == null) {
+                sender.sendMessage("ERROR|請先登入");
+            } else if (sender.getRoom() != null) {
+                sender.sendMessage("ERROR|已在房間中");
+            } else {
+                matchmaking.enqueue(sender);
+            }
+            return;
+        }
+
+        if (msg.isType("QUICK_MATCH_CANCEL")) {
+            if (sender.getPlayerId() != null)
+                matchmaking.cancel(sender, true);
+            return;
+        }
+
+        // 登入結果是非同步回覆的，客戶端可能在 LOGIN_SUCCESS 之前就送出入座指令
+        if ((msg.isType("CREATE_ROOM") || msg.isType("JOIN_ROOM")) && sender.getPlayerId() == null) {
+            sender.sendMessage("ERROR|請先登入");
+            return;
+        }
+
+        // 缺少房名、房號或玩家欄位的指令直接回覆錯誤
+        if ((msg.isType("CREATE_ROOM") || msg.isType("JOIN_ROOM") || msg.isType("ACTION")) && msg.fieldCount() < 2) {
+            sender.sendMessage("ERROR|格式錯誤");
+            return;
+        }
+
+        // 與 QUICK_MATCH 相同：已經坐在房間裡的玩家須先 LEAVE_ROOM，不能同時佔兩個座位
+        if ((msg.isType("CREATE_ROOM") || msg.isType("JOIN_ROOM")) && sender.getRoom() != null) {
+            sender.sendMessage("ERROR|已在房間中");
+            return;
         }
 
-        if (type.equals("JOIN_ROOM")) {
-            String roomId = parts[1];
+        if (msg.isType("CREATE_ROOM")) {
+            matchmaking.cancel(sender, false);
+            String rName = msg.field(1);
+            GameRoom newRoom = rooms.create(id -> {
+                GameRoom r = new GameRoom(id, rName);
+                journal.roomCreated(id, rName);
+                r.addPlayer(sender);
+                return r;
+            });
+            if (newRoom == null) {
+                sender.sendMessage("ERROR|房間數已達上限");
+                return;
+            }
+            if (sender.getRoom() != newRoom) {
+                // 同一玩家的座位已由其他連線或保留座位持有 (addPlayer 拒絕)：關閉這間還沒公布的空房
+                newRoom.removePlayer(sender.getPlayerId());
+                rooms.remove(newRoom);
+                sender.sendMessage("ERROR|已在房間中");
+                return;
+            }
+            String rId = newRoom.getRoomId();
+
+            sender.sendMessage("CREATE_SUCCESS|" + rId + "|" + rName);
+            lobbyFeed.roomChanged(newRoom);
+            newRoom.execute(() -> broadcastRoomStatus(newRoom));
+            ServerLog.info("玩家 {} 建立了房間: {}", sender.getPlayerId(), rId);
+        }
+
+        if (msg.isType("JOIN_ROOM")) {
+            String roomId = msg.field(1);
             GameRoom room = rooms.get(roomId);
+            // 座位在此同步保留，之後同一玩家的 READY 才找得到房間；廣播交給房間信箱
             if (room != null && room.addPlayer(sender)) {
-                broadcastRoomStatus(room);
+                matchmaking.cancel(sender, false);
+                lobbyFeed.roomChanged(room);
+                room.execute(() -> broadcastRoomStatus(room));
             } else {
                 sender.sendMessage("ERROR|房間已滿或不存在");
             }
         }
 
-        if (type.equals("GET_ROOMS")) {
-            for (GameRoom r : rooms.values()) {
-                sender.sendMessage("NEW_ROOM|" + r.getRoomId() + "|" + r.getRoomName() + "|" + r.getPlayerCount());
-            }
+        if (msg.isType("GET_ROOMS")) {
+            sendRoomList(sender, knownLobbyVersion(msg));
         }
 
-        if (type.equals("LEAVE_ROOM")) {
+        if (msg.isType("LEAVE_ROOM")) {
             handlePlayerLeave(sender);
         }
 
-        if (type.equals("READY") || type.equals("CANCEL_READY")) {
-            String pId = (sender != null) ? sender.getPlayerId() : parts[1];
+        if (msg.isType("READY") || msg.isType("CANCEL_READY")) {
+            String pId = (sender != null) ? sender.getPlayerId() : msg.field(1);
             GameRoom room = findRoomByPlayer(pId);
             if (room != null) {
-                room.setReady(pId, type.equals("READY"));
-                broadcastRoomStatus(room);
-
-                if (room.isAllReady()) {
-                    room.initGame(logger);
-                    room.startGaming();
-                    broadcastGameState(room);
-                    room.resetTurnTimer(this);
-                }
+                boolean ready = msg.isType("READY");
+                room.execute(() -> handleReady(room, pId, ready));
             }
         }
 
-        if (type.equals("ACTION")) {
-            String actorId = parts[1];
+        if (msg.isType("ACTION")) {
+            String actorId = msg.field(1);
             GameRoom room = findRoomByPlayer(actorId);
+            if (room != null) {
+                room.execute(() -> handleAction(room, actorId, msg));
+            }
+        }
 
-            if (room != null && room.getGameState() != null) {
-                String currentPlayer = room.getGameState().players.get(room.getGameState().currentPlayerIdx);
-                if (!actorId.equals(currentPlayer))
-                    return;
+        if (msg.isType("SYNC") && sender != null) {
+            GameRoom room = sender.getRoom();
+            if (room != null) {
+                room.execute(() -> sendFullState(room, sender));
+            }
+        }
 
-                GameCommand cmd = factory.createCommand(message);
-                if (cmd != null) {
-                    cmd.execute(room.getGameState());
+        if (msg.isType("RESTART")) {
+            GameRoom room = findRoomByPlayer(sender.getPlayerId());
+            if (room != null) {
+                room.execute(() -> handleRestart(room));
+            }
+        }
+    }
 
-                    // 執行勝負判定
-                    checkWinner(room);
+    // 以下 handleReady / handleAction / handleRestart 只在房間信箱內執行
+    private void handleReady(GameRoom room, String pId, boolean ready) {
+        if (!room.hasPlayer(pId))
+            return;
 
-                    // 只有當遊戲「還沒結束」時，才繼續計時與廣播
-                    if (room.getGameState() != null) {
-                        broadcastGameState(room);
-                        room.resetTurnTimer(this);
-                    }
-                }
+        room.setReady(pId, ready);
+        journal.ready(room.getRoomId(), pId, ready);
+        broadcastRoomStatus(room);
+
+        if (room.isAllReady()) {
+            startGame(room);
+        }
+    }
+
+    private void startGame(GameRoom room) {
+        metrics.increment("games.started");
+        room.initGame();
+        room.startGaming();
+        journal.snapshot(room.getRoomId(), room.getGameState());
+        broadcastGameState(room);
+        room.resetTurnTimer(this);
+    }
+
+    // 配對成功：建房、全員入座並視為已準備，直接開局 (在配對信箱內呼叫)
+    private boolean startQuickMatch(List<ClientHandler> players) {
+        GameRoom room = rooms.create(id -> {
+            GameRoom r = new GameRoom(id, "快速配對 " + id);
+            journal.roomCreated(id, r.getRoomName());
+            return r;
+        });
+        if (room == null)
+            return false;
+        for (ClientHandler h : players) {
+            if (room.addPlayer(h)) {
+                h.sendMessage("MATCH_FOUND|" + room.getRoomId() + "|" + room.getRoomName());
             }
         }
+        lobbyFeed.roomChanged(room);
+        room.execute(() -> {
+            for (ClientHandler h : room.getMembers()) {
+                room.setReady(h.getPlayerId(), true);
+                journal.ready(room.getRoomId(), h.getPlayerId(), true);
+            }
+            broadcastRoomStatus(room);
+            if (room.isAllReady()) {
+                startGame(room);
+            }
+        });
+        ServerLog.info("快速配對成局: 房間 {}，{} 人", room.getRoomId(), players.size());
+        return true;
+    }
 
-        if (type.equals("RESTART")) {
-            GameRoom room = findRoomByPlayer(sender.getPlayerId());
-            if (room != null) {
-                room.stopTimer();
-                room.stopGaming();
-                room.resetAllReadyStatus();
-                broadcastRoomStatus(room);
+    private void handleAction(GameRoom room, String actorId, ProtocolMessage message) {
+        if (room.getGameState() == null)
+            return;
+
+        String currentPlayer = room.getGameState().players.get(room.getGameState().currentPlayerIdx);
+        if (!actorId.equals(currentPlayer))
+            return;
+
+        GameCommand cmd = factory.createCommand(message, room.getGameState());
+        if (cmd != null) {
+            GameState state = room.getGameState();
+            int aliveBefore = state.aliveCount();
+            cmd.execute(state);
+            metrics.increment("game.moves");
+            journalMove(room, message, state, aliveBefore);
+
+            // 執行勝負判定
+            checkWinner(room);
+
+            // 只有當遊戲「還沒結束」時，才繼續計時與廣播
+            if (room.getGameState() != null) {
+                broadcastGameState(room);
+                room.resetTurnTimer(this);
+            }
+        }
+    }
+
+    // 指令已執行：記錄指令本身、出局事件，並每隔一段步數寫一次完整快照縮短重播
+    private void journalMove(GameRoom room, ProtocolMessage message, GameState state, int aliveBefore) {
+        if (!journal.isEnabled())
+            return;
+        String roomId = room.getRoomId();
+        journal.move(roomId, message);
+        if (state.aliveCount() < aliveBefore) {
+            String actor = message.field(1);
+            journal.eliminated(roomId, actor, state.getTrap(actor), state.roundCount);
+        }
+        if (++room.movesSinceSnapshot >= RoomJournal.SNAPSHOT_INTERVAL) {
+            room.movesSinceSnapshot = 0;
+            journal.snapshot(roomId, state);
+        }
+    }
+
+    private void handleRestart(GameRoom room) {
+        journal.restarted(room.getRoomId());
+        room.stopTimer();
+        room.stopGaming();
+        room.resetAllReadyStatus();
+        broadcastRoomStatus(room);
+
+        ServerLog.info("房間 {} 請求重開，已退回等待室。", room.getRoomId());
+    }
+
+    // 握手：HELLO|功能1,功能2 → HELLO_OK|雙方都支援的功能；只在連線的第一則訊息有效
+    private void handleHello(ProtocolMessage msg, ClientHandler sender) {
+        if (!sender.isFirstMessage())
+            return;
+
+        Set<String> accepted = new LinkedHashSet<>();
+        if (msg.fieldCount() > 1) {
+            for (String f : msg.field(1).split(",")) {
+                if (SUPPORTED_FEATURES.contains(f))
+                    accepted.add(f);
+            }
+        }
+        sender.setFeatures(accepted);
+
+        String reply = "HELLO_OK|" + String.join(",", accepted);
+        if (accepted.contains(BinaryCodec.VERSION)) {
+            sender.switchToBinary(reply);
+        } else {
+            sender.sendMessage(reply);
+        }
+    }
+
+    // 支援 LOBBY_FEED 的客戶端訂閱增量列表 (版本相同時不重送)；舊客戶端逐一收到 NEW_ROOM
+    // GET_ROOMS|版本：缺少或無法解析時視為 -1，回覆完整快照
+    private static long knownLobbyVersion(ProtocolMessage msg) {
+        if (msg.fieldCount() < 2)
+            return -1;
+        try {
+            return Long.parseLong(msg.field(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void sendRoomList(ClientHandler sender, long knownVersion) {
+        if (sender.hasFeature(LobbyFeed.FEATURE)) {
+            lobbyFeed.subscribe(sender, knownVersion);
+            return;
+        }
+        for (GameRoom r : rooms.all()) {
+            sender.sendMessage("NEW_ROOM|" + r.getRoomId() + "|" + r.getRoomName() + "|" + r.getPlayerCount());
+        }
+    }
 
-                System.out.println("房間 " + room.getRoomId() + " 請求重開，已退回等待室。");
+    // 玩家的座位由 DetachedSeat (斷線寬限期、當機復原) 或被取代的舊連線持有時，換成這條連線並補送房間與遊戲狀態；
+    // 回傳是否接回了座位
+    private boolean resumeHeldSeat(ClientHandler sender) {
+        GameRoom room = playerRooms.get(sender.getPlayerId());
+        if (room == null || !room.rebind(sender))
+            return false;
+        ServerLog.info("玩家 {} 回到房間 {}", sender.getPlayerId(), room.getRoomId());
+        room.execute(() -> {
+            sender.sendMessage("ROOM_RESUMED|" + room.getRoomId() + "|" + room.getRoomName());
+            broadcastRoomStatus(room);
+            if (room.getGameState() != null && room.lastSnapshot == null) {
+                // 復原後尚未廣播過狀態，沒有可重送的快照
+                broadcastGameState(room);
+            } else {
+                sendFullState(room, sender);
             }
+        });
+        return true;
+    }
+
+    // 密碼驗證交給驗證執行緒池，LOGIN_SUCCESS / LOGIN_FAIL 在雜湊完成後才送出
+    private void handleLogin(ProtocolMessage msg, ClientHandler sender) {
+        if (msg.fieldCount() < 3) {
+            sender.sendMessage("LOGIN_FAIL");
+            return;
+        }
+        String username = msg.field(1);
+        String password = msg.field(2);
+        submitAuth(sender, () -> completeLogin(sender, username, accountManager.checkLogin(username, password, sender)));
+    }
+
+    // PLAYER_STATS|玩家|局數|勝場|平均存活輪數；沒有紀錄的玩家全為 0
+    private void sendPlayerStats(ClientHandler sender, String playerId) {
+        if (sender == null)
+            return;
+        MatchHistory.PlayerStats s = matchHistory.stats(playerId);
+        sender.sendMessage("PLAYER_STATS|" + playerId + "|" + s.games + "|" + s.wins + "|"
+                + String.format(Locale.ROOT, "%.2f", s.averageSurvival()));
+    }
+
+    // 佇列已滿或同一 IP 嘗試太頻繁時立即回覆錯誤，不排隊
+    private void submitAuth(ClientHandler sender, Runnable task) {
+        switch (auth.submit(sender.getRemoteAddress(), () -> SendBatch.run(task))) {
+            case BUSY:
+                sender.sendMessage("ERROR|SERVER_BUSY");
+                break;
+            case RATE_LIMITED:
+                sender.sendMessage("ERROR|RATE_LIMITED");
+                break;
+            default:
+                break;
         }
     }
 
-    private void handleLogin(String[] parts, ClientHandler sender) {
-        int status = accountManager.checkLogin(parts[1], parts[2]);
+    // 在驗證執行緒上執行
+    private void completeLogin(ClientHandler sender, String username, int status) {
         if (status == 0) {
-            sender.setPlayerId(parts[1]);
-            sender.sendMessage("LOGIN_SUCCESS|" + parts[1]);
-            for (GameRoom room : rooms.values()) {
-                sender.sendMessage(
-                        "NEW_ROOM|" + room.getRoomId() + "|" + room.getRoomName() + "|" + room.getPlayerCount());
+            sender.setPlayerId(username);
+            // 雜湊期間連線已中斷：斷線清理可能沒看到身分，這裡補做登出
+            if (sender.isDisconnected()) {
+                accountManager.logout(username, sender);
+                return;
             }
+            sender.sendMessage("LOGIN_SUCCESS|" + username + "|" + sessions.issue(sender));
+            sendRoomList(sender, -1);
+            resumeHeldSeat(sender);
         } else if (status == 2) {
             sender.sendMessage("ERROR|ALREADY_LOGGED_IN");
         } else {
@@ -154,6 +753,40 @@ public class GameServer {
         }
     }
 
+    // RESUME|權杖 → RESUME_OK|帳號|新權杖|是否接回座位 (1/0) 或 RESUME_FAIL。
+    // 接回座位時直接補送房間與遊戲狀態，不送大廳列表
+    private void handleResume(ProtocolMessage msg, ClientHandler sender) {
+        if (sender.getPlayerId() != null) {
+            sender.sendMessage("ERROR|ALREADY_LOGGED_IN");
+            return;
+        }
+        if (msg.fieldCount() < 2) {
+            sender.sendMessage("ERROR|格式錯誤");
+            return;
+        }
+        SessionManager.Resumed resumed = sessions.resume(msg.field(1), sender,
+                (playerId, previous) -> accountManager.claimOnline(playerId, sender, previous));
+        if (resumed == null) {
+            sender.sendMessage("RESUME_FAIL");
+            return;
+        }
+        sender.setPlayerId(resumed.playerId);
+        boolean seated = playerRooms.containsKey(resumed.playerId);
+        sender.sendMessage("RESUME_OK|" + resumed.playerId + "|" + resumed.token + "|" + (seated ? 1 : 0));
+        boolean rebound = resumeHeldSeat(sender);
+        ClientHandler previous = resumed.previous;
+        if (previous != null) {
+            // 舊連線還沒被察覺中斷 (例如行動網路切換)：清掉身分後中斷，它的斷線清理就不會登出帳號或釋放座位
+            matchmaking.cancel(previous, false);
+            previous.setPlayerId(null);
+            previous.abortConnection();
+        }
+        if (!rebound) {
+            sendRoomList(sender, -1);
+        }
+        ServerLog.info("玩家 {} 以權杖重新連線", resumed.playerId);
+    }
+
     private void broadcastRoomStatus(GameRoom room) {
         StringBuilder sb = new StringBuilder("ROOM_STATUS|");
         sb.append(room.getRoomName()).append("|");
@@ -168,54 +801,89 @@ public class GameServer {
         }
     }
 
-    private void broadcastGameState(GameRoom room) {
+    // 支援 DELTA 且持有上一版狀態的客戶端只收差異，其餘 (舊客戶端、剛加入或跳號者) 收完整快照
+    // (package-private 供 bench/HotPathBenchmark 量測)
+    void broadcastGameState(GameRoom room) {
         if (room.getGameState() == null)
             return;
+        long start = System.nanoTime();
+
+        GameState.Snapshot prev = room.lastSnapshot;
+        GameState.Snapshot snap = room.getGameState().snapshot(stateSeq.incrementAndGet());
+        String sharedDelta = snap.sharedDelta(prev);
+
         for (ClientHandler h : room.getMembers()) {
-            String syncMsg = room.getGameState().serializeState(h.getPlayerId());
-            h.sendMessage(syncMsg);
+            String pId = h.getPlayerId();
+            boolean useDelta = sharedDelta != null && h.hasFeature("DELTA") && h.getLastStateSeq() == prev.seq;
+            // 先記錄序號再送出：送出佇列若因塞車丟棄狀態，會把序號改回 -1 以便下次送完整快照
+            h.setLastStateSeq(snap.seq);
+            h.sendMessage(useDelta ? sharedDelta + snap.counterDelta(prev, pId) : snap.forPlayer(pId));
         }
+        room.lastSnapshot = snap;
+        metrics.recordSince(stateBroadcastLatency, start);
     }
 
-    private void broadcastToLobby(String msg) {
-        for (ClientHandler h : handlers) {
-            if (findRoomByPlayer(h.getPlayerId()) == null) {
-                h.sendMessage(msg);
-            }
-        }
+    // 客戶端發現序號不連續時要求重送完整快照
+    private void sendFullState(GameRoom room, ClientHandler h) {
+        GameState.Snapshot snap = room.lastSnapshot;
+        if (room.getGameState() == null || snap == null)
+            return;
+        h.setLastStateSeq(snap.seq);
+        h.sendMessage(snap.forPlayer(h.getPlayerId()));
     }
 
     private GameRoom findRoomByPlayer(String playerId) {
         if (playerId == null)
             return null;
-        for (GameRoom room : rooms.values()) {
-            for (ClientHandler h : room.getMembers()) {
-                if (playerId.equals(h.getPlayerId()))
-                    return room;
-            }
-        }
-        return null;
+        return playerRooms.get(playerId);
     }
 
-    public synchronized void removeHandler(ClientHandler handler) {
+    public void removeHandler(ClientHandler handler) {
         handlers.remove(handler);
         String pId = handler.getPlayerId();
-        if (pId != null) {
-            GameRoom room = findRoomByPlayer(pId);
-            if (room != null) {
-                room.removePlayer(pId);
-                if (room.getPlayerCount() == 0) {
-                    room.stopTimer();
-                    rooms.remove(room.getRoomId());
-                } else {
-                    // 有人斷線時也進行勝負判定
-                    checkWinner(room);
-                    if (room.getGameState() != null) {
-                        broadcastRoomStatus(room);
-                    }
-                }
+        if (pId == null)
+            return;
+        SessionManager.Release release = sessions.release(handler);
+        if (release == SessionManager.Release.SUPERSEDED)
+            return;
+        matchmaking.cancel(handler, false);
+        GameRoom room = handler.getRoom();
+        if (room == null)
+            return;
+        // 寬限期內座位改由 DetachedSeat 保留，遊戲照常進行 (輪到時逾時自動喊 1)
+        if (release == SessionManager.Release.HELD && room.detach(handler)) {
+            ServerLog.info("玩家 {} 斷線，保留房間 {} 的座位等待重新連線", pId, room.getRoomId());
+            return;
+        }
+        room.execute(() -> releaseSeat(room, pId));
+    }
+
+    // 寬限期結束仍未接回 (計時器執行緒呼叫)：座位若仍由 DetachedSeat 保留就正式離開房間
+    private void expireSession(String pId) {
+        GameRoom room = playerRooms.get(pId);
+        if (room == null)
+            return;
+        room.execute(() -> {
+            if (room.hasDetachedSeat(pId)) {
+                ServerLog.info("玩家 {} 未在寬限期內重新連線，離開房間 {}", pId, room.getRoomId());
+                releaseSeat(room, pId);
+            }
+        });
+    }
+
+    // 斷線的玩家離開房間 (在房間信箱內呼叫)
+    private void releaseSeat(GameRoom room, String pId) {
+        if (room.removePlayer(pId) == 0) {
+            room.stopTimer();
+            rooms.remove(room);
+        } else {
+            // 有人斷線時也進行勝負判定
+            checkWinner(room);
+            if (room.getGameState() != null) {
+                broadcastRoomStatus(room);
             }
         }
+        lobbyFeed.roomChanged(room);
     }
 
     private void checkWinner(GameRoom room) {
@@ -223,18 +891,22 @@ public class GameServer {
         if (s == null)
             return;
 
-        long aliveCount = s.playerAliveStatus.values().stream().filter(v -> v).count();
-        if (aliveCount == 1) {
-            String winnerId = s.players.stream().filter(id -> s.playerAliveStatus.get(id)).findFirst().orElse("");
-            String msg = "WINNER|" + winnerId + "|" + logger.getAllDeathReasons();
+        if (s.aliveCount() == 1) {
+            String winnerId = s.players.get(s.firstAliveSeat());
+            // 只帶本局的出局紀錄；遊戲狀態清除後紀錄隨之釋放
+            String msg = "WINNER|" + winnerId + "|" + s.deathHistory().describe(s.players);
 
             for (ClientHandler h : room.getMembers()) {
                 h.sendMessage(msg);
             }
 
+            metrics.increment("games.finished");
+            journal.gameEnded(room.getRoomId());
+            deathArchive.gameEnded(room.getRoomId(), winnerId, s);
+            matchHistory.record(s, s.firstAliveSeat());
             room.stopTimer();
             room.stopGaming(); // 清除遊戲狀態，防止後續計時器繼續執行
-            System.out.println("房間 " + room.getRoomId() + " 遊戲結束，贏家為: " + winnerId);
+            ServerLog.info("房間 {} 遊戲結束，贏家為: {}", room.getRoomId(), winnerId);
         }
     }
 
@@ -245,22 +917,25 @@ public class GameServer {
 
         GameRoom room = findRoomByPlayer(pId);
         if (room != null) {
-            System.out.println("玩家 " + pId + " 正在離開房間: " + room.getRoomId());
-
-            room.removePlayer(pId);
+            room.execute(() -> {
+                if (!room.hasPlayer(pId))
+                    return;
+                ServerLog.info("玩家 {} 正在離開房間: {}", pId, room.getRoomId());
 
-            if (room.getPlayerCount() == 0) {
-                rooms.remove(room.getRoomId());
-                System.out.println("房間 " + room.getRoomId() + " 已空，正式關閉。");
-            } else {
-                checkWinner(room);
-                if (room.getGameState() != null) {
-                    broadcastRoomStatus(room);
+                if (room.removePlayer(pId) == 0) {
+                    room.stopTimer();
+                    rooms.remove(room);
+                    ServerLog.info("房間 {} 已空，正式關閉。", room.getRoomId());
+                } else {
+                    checkWinner(room);
+                    if (room.getGameState() != null) {
+                        broadcastRoomStatus(room);
+                    }
                 }
-            }
 
-            broadcastToLobby("NEW_ROOM|" + room.getRoomId() + "|" + room.getRoomName() + "|" + room.getPlayerCount());
-            sender.sendMessage("LEAVE_SUCCESS");
+                lobbyFeed.roomChanged(room);
+                sender.sendMessage("LEAVE_SUCCESS");
+            });
         }
     }
 
@@ -270,7 +945,20 @@ public class GameServer {
         private List<ClientHandler> members = new CopyOnWriteArrayList<>();
         private Map<String, Boolean> readyStatus = new ConcurrentHashMap<>();
         private GameState gameState;
-        private Timer turnTimer;
+        // 最近一次廣播的狀態，作為下一次差異的比較基準 (只在房間信箱內讀寫)
+        private GameState.Snapshot lastSnapshot;
+        private ScheduledFuture<?> turnTimer;
+        // 回合序號：每次重設或停止計時都會遞增，過期的逾時事件比對不符即丟棄
+        private volatile long turnSeq = 0;
+        // 房間信箱：遊戲狀態只在這裡被依序讀寫
+        private final SerialExecutor mailbox = new SerialExecutor(roomWorkers);
+        // 保護座位數檢查與「房間已關閉」判定，讓 JOIN 可以不經過信箱直接佔位
+        private final ReentrantLock seatLock = new ReentrantLock();
+        private boolean closed = false;
+        // 目前登錄在 RoomRegistry 哪一個狀態索引 (受 seatLock 保護，null 表示尚未列入或已關閉)
+        private RoomRegistry.State indexedState;
+        // 上次寫入日誌快照後執行的步數 (只在房間信箱內讀寫)
+        private int movesSinceSnapshot = 0;
 
         public GameRoom(String id, String name) {
             this.roomId = id;
@@ -297,22 +985,152 @@ public class GameServer {
             return gameState;
         }
 
+        public void execute(Runnable task) {
+            long enqueued = System.nanoTime();
+            mailbox.execute(() -> {
+                metrics.recordSince(mailboxWaitLatency, enqueued);
+                SendBatch.run(task);
+            });
+        }
+
+        public boolean hasPlayer(String pId) {
+            return playerRooms.get(pId) == this;
+        }
+
         public void stopGaming() {
             this.gameState = null;
+            this.lastSnapshot = null;
+            refreshIndex();
         }
 
+        // 依人數與遊戲狀態重新歸類到 RoomRegistry 的索引；狀態未變時不動
+        void refreshIndex() {
+            seatLock.lock();
+            try {
+                RoomRegistry.State state = closed ? null
+                        : gameState != null ? RoomRegistry.State.PLAYING
+                        : members.size() >= MAX_PLAYERS_PER_ROOM ? RoomRegistry.State.FULL
+                        : RoomRegistry.State.WAITING;
+                if (state != indexedState && rooms.move(this, indexedState, state)) {
+                    indexedState = state;
+                }
+            } finally {
+                seatLock.unlock();
+            }
+        }
+
+        // 玩家已登錄在任何房間 (包括這一間) 時失敗：playerId → 房間的索引以 putIfAbsent 原子地佔用
         public boolean addPlayer(ClientHandler h) {
-            if (members.size() < 4) {
-                members.add(h);
-                readyStatus.put(h.getPlayerId(), false);
+            seatLock.lock();
+            try {
+                if (!closed && members.size() < MAX_PLAYERS_PER_ROOM
+                        && playerRooms.putIfAbsent(h.getPlayerId(), this) == null) {
+                    members.add(h);
+                    readyStatus.put(h.getPlayerId(), false);
+                    h.setRoom(this);
+                    journal.seatTaken(roomId, h.getPlayerId());
+                    refreshIndex();
+                    return true;
+                }
+                return false;
+            } finally {
+                seatLock.unlock();
+            }
+        }
+
+        // 回傳移除後的剩餘人數；歸零時房間即關閉，之後的 JOIN 都會失敗
+        public int removePlayer(String pId) {
+            seatLock.lock();
+            try {
+                for (ClientHandler h : members) {
+                    if (pId.equals(h.getPlayerId())) {
+                        members.remove(h);
+                        if (h.getRoom() == this)
+                            h.setRoom(null);
+                    }
+                }
+                if (readyStatus.remove(pId) != null)
+                    journal.seatReleased(roomId, pId);
+                playerRooms.remove(pId, this);
+                if (members.isEmpty() && !closed) {
+                    closed = true;
+                    journal.roomClosed(roomId);
+                }
+                refreshIndex();
+                return members.size();
+            } finally {
+                seatLock.unlock();
+            }
+        }
+
+        // 把同一玩家的座位 (DetachedSeat 或被 RESUME 取代的舊連線) 換成新連線；座位順序與準備狀態不變
+        boolean rebind(ClientHandler h) {
+            seatLock.lock();
+            try {
+                for (int i = 0; i < members.size(); i++) {
+                    ClientHandler seat = members.get(i);
+                    if (seat != h && h.getPlayerId().equals(seat.getPlayerId())) {
+                        members.set(i, h);
+                        if (seat.getRoom() == this)
+                            seat.setRoom(null);
+                        h.setRoom(this);
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                seatLock.unlock();
+            }
+        }
+
+        // 斷線的連線改由 DetachedSeat 佔住座位；該連線已不在座位上 (例如剛被取代) 時回傳 false
+        boolean detach(ClientHandler h) {
+            seatLock.lock();
+            try {
+                int i = members.indexOf(h);
+                if (closed || i < 0)
+                    return false;
+                members.set(i, new DetachedSeat(GameServer.this, h.getPlayerId()));
+                h.setRoom(null);
                 return true;
+            } finally {
+                seatLock.unlock();
+            }
+        }
+
+        boolean hasDetachedSeat(String pId) {
+            for (ClientHandler h : members) {
+                if (h.isDetached() && pId.equals(h.getPlayerId()))
+                    return true;
             }
             return false;
         }
 
-        public void removePlayer(String pId) {
-            members.removeIf(h -> pId.equals(h.getPlayerId()));
-            readyStatus.remove(pId);
+        // 復原進行中的遊戲 (在開始接受連線前呼叫)
+        void restoreGame(GameState state) {
+            this.gameState = state;
+            this.lastSnapshot = null;
+            refreshIndex();
+        }
+
+        // 在房間信箱內呼叫：寫入完整成員與遊戲狀態，重播時取代先前的所有紀錄
+        void writeCheckpoint() {
+            seatLock.lock();
+            try {
+                if (closed)
+                    return;
+                Map<String, Boolean> seats = new LinkedHashMap<>();
+                for (ClientHandler h : members) {
+                    seats.put(h.getPlayerId(), readyStatus.getOrDefault(h.getPlayerId(), false));
+                }
+                journal.roomCheckpoint(roomId, roomName, seats);
+            } finally {
+                seatLock.unlock();
+            }
+            if (gameState != null) {
+                journal.snapshot(roomId, gameState);
+                movesSinceSnapshot = 0;
+            }
         }
 
         public void resetAllReadyStatus() {
@@ -329,47 +1147,52 @@ public class GameServer {
             return members.size() >= 2 && readyStatus.values().stream().allMatch(r -> r);
         }
 
-        public void initGame(DeathHistoryLogger logger) {
+        public void initGame() {
             List<String> ids = new ArrayList<>();
             for (ClientHandler h : members)
                 ids.add(h.getPlayerId());
             this.gameState = new GameState(ids);
+            this.lastSnapshot = null;
         }
 
         public void startGaming() {
-            System.out.println("房間 " + roomId + " 遊戲開始！");
+            refreshIndex();
+            ServerLog.info("房間 {} 遊戲開始！", roomId);
         }
 
         public void resetTurnTimer(GameServer server) {
-            if (turnTimer != null) {
-                turnTimer.cancel();
-            }
+            stopTimer();
             // 若遊戲已結束 (gameState 為 null)，不再啟動新計時器
             if (gameState == null)
                 return;
 
-            turnTimer = new Timer();
-            turnTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    handleTimeout(server);
-                }
-            }, 15000);
+            long seq = turnSeq;
+            turnTimer = timerService.schedule(() -> handleTimeout(server, seq), 15, TimeUnit.SECONDS);
         }
 
-        private void handleTimeout(GameServer server) {
-            if (gameState == null)
+        // 計時器執行緒只比對序號 (不取得任何鎖)，仍有效才把逾時事件送進房間信箱
+        private void handleTimeout(GameServer server, long seq) {
+            if (seq != turnSeq)
                 return;
 
-            String timedOutPlayer = gameState.players.get(gameState.currentPlayerIdx);
-            System.out.println("玩家 " + timedOutPlayer + " 超時！系統強制加 1 並換人。");
-            String autoCmd = "ACTION|" + timedOutPlayer + "|CALL|1";
-            server.processCommand(autoCmd, null);
+            execute(() -> {
+                // 排隊期間若玩家已經出手，序號會不同
+                if (seq != turnSeq || gameState == null)
+                    return;
+                metrics.increment("turn.timeouts");
+                String timedOutPlayer = gameState.players.get(gameState.currentPlayerIdx);
+                ServerLog.info("玩家 {} 超時！系統強制加 1 並換人。", timedOutPlayer);
+                ProtocolMessage autoCmd = ProtocolMessage.parse("ACTION|" + timedOutPlayer + "|CALL|1");
+                server.handleAction(this, timedOutPlayer, autoCmd);
+            });
         }
 
         public void stopTimer() {
-            if (turnTimer != null)
-                turnTimer.cancel();
+            turnSeq++;
+            if (turnTimer != null) {
+                turnTimer.cancel(false);
+                turnTimer = null;
+            }
         }
     }
 }
\ No newline at end of file
@@ -1,25 +1,85 @@
 import java.util.*;
 
+/**
+ * 遊戲狀態。玩家資料依座位 (players 中的索引) 存放在基本型別陣列與位元欄位中，
+ * 回合熱路徑 (喊數、換人、PASS/RETURN) 不需查表也不會自動裝箱。
+ */
 public class GameState {
+    // 計數器打包在一個 long 裡：每個座位佔 8 位元，低 4 位元為 RETURN 剩餘次數，高 4 位元為 PASS 剩餘次數
+    private static final int COUNTER_BITS = 8;
+    private static final int MAX_SEATS = Long.SIZE / COUNTER_BITS;
+
     public int currentNumber = 0;      // 目前喊到的數字 
     public int roundCount = 1;         // 紀錄目前是第幾輪操作
     public boolean isClockwise = true; // 目前方向 
     public int currentPlayerIdx = 0;   // 目前輪到的玩家索引
-    public List<String> players = new ArrayList<>(); // 玩家 ID 清單 
-    public Map<String, Boolean> playerAliveStatus = new HashMap<>(); // 存活狀態
-    private Map<String, Integer> traps = new HashMap<>(); // 陷阱數字 
-    public Map<String, Integer> returnLimit = new HashMap<>();
-    public Map<String, Integer> passLimit = new HashMap<>();
+    public List<String> players = new ArrayList<>(); // 玩家 ID 清單 (索引即座位)
+    private int aliveMask;             // 存活狀態，第 i 位元代表座位 i
+    private final int[] traps;         // 陷阱數字，依座位
+    private long counters;             // RETURN / PASS 剩餘次數，依座位打包
+    private final DeathHistoryLogger deaths; // 本局的出局紀錄，隨本局一起釋放
 
     public GameState(List<String> playerIds) {
+        if (playerIds.size() > MAX_SEATS)
+            throw new IllegalArgumentException("玩家人數超過上限: " + playerIds.size());
+
         this.players.addAll(playerIds);
-        for (String id : playerIds) {
-            playerAliveStatus.put(id, true);
+        this.traps = new int[playerIds.size()];
+        this.deaths = new DeathHistoryLogger(playerIds.size());
+        for (int seat = 0; seat < traps.length; seat++) {
+            aliveMask |= 1 << seat;
             // 隨機分配 1-13 陷阱數字 
-            traps.put(id, (int)(Math.random() * 13) + 1);
-            returnLimit.put(id, 1); 
-            passLimit.put(id, 1);   
+            traps[seat] = (int)(Math.random() * 13) + 1;
+            setReturnLeft(seat, 1);
+            setPassLeft(seat, 1);
+        }
+    }
+
+    // 從日誌還原：陷阱與其他欄位由 fromJournal 填入
+    private GameState(List<String> playerIds, int[] traps) {
+        this.players.addAll(playerIds);
+        this.traps = traps;
+        this.deaths = new DeathHistoryLogger(playerIds.size());
+    }
+
+    /**
+     * 編碼成日誌 (RoomJournal) 用的精簡快照，不含 '|'：
+     * 玩家(,分隔);目前數字;輪數;方向(1/0);當前座位;存活位元;陷阱(,分隔);剩餘次數;出局紀錄
+     */
+    public String toJournal() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(String.join(",", players)).append(';');
+        sb.append(currentNumber).append(';').append(roundCount).append(';').append(isClockwise ? 1 : 0).append(';');
+        sb.append(currentPlayerIdx).append(';').append(aliveMask).append(';');
+        for (int i = 0; i < traps.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(traps[i]);
         }
+        sb.append(';').append(counters);
+        sb.append(';').append(deaths.encode());
+        return sb.toString();
+    }
+
+    public static GameState fromJournal(String encoded) {
+        String[] f = encoded.split(";", -1);
+        String[] trapText = f[6].split(",");
+        int[] traps = new int[trapText.length];
+        for (int i = 0; i < traps.length; i++) traps[i] = Integer.parseInt(trapText[i]);
+
+        GameState s = new GameState(Arrays.asList(f[0].split(",")), traps);
+        s.currentNumber = Integer.parseInt(f[1]);
+        s.roundCount = Integer.parseInt(f[2]);
+        s.isClockwise = f[3].equals("1");
+        s.currentPlayerIdx = Integer.parseInt(f[4]);
+        s.aliveMask = Integer.parseInt(f[5]);
+        s.counters = Long.parseLong(f[7]);
+        if (f.length > 8) s.deaths.decode(f[8]); // 舊版快照沒有出局紀錄
+        return s;
+    }
+
+    // 玩家 ID 轉座位，於建立指令時解析一次；不在本局時回傳 -1
+    public int seatOf(String id) {
+        return players.indexOf(id);
     }
 
     // 計算下一位存活玩家 
@@ -32,50 +92,57 @@ public class GameState {
 
         do {
             currentPlayerIdx = (currentPlayerIdx + step + total) % total;
-        } while (!playerAliveStatus.get(players.get(currentPlayerIdx))); 
+        } while (!isAlive(currentPlayerIdx)); 
 
         // 判定 Round 增加的時機：
         // 當索引「繞回」或「經過」第 0 位玩家時，代表新的一輪開始
         if (isClockwise && currentPlayerIdx <= oldIdx) roundCount++;
         else if (!isClockwise && currentPlayerIdx >= oldIdx) roundCount++;
 
-        System.out.println("目前是第 " + roundCount + " 輪");
+        ServerLog.debug("目前是第 {} 輪", roundCount);
     }
 
-    public int getTrap(String id) { return traps.get(id); }
+    public boolean isAlive(int seat) { return (aliveMask & (1 << seat)) != 0; }
+
+    public int aliveCount() { return Integer.bitCount(aliveMask); }
 
-    public void setPlayerOut(String id) {
-        playerAliveStatus.put(id, false);
-        System.out.println("玩家 " + id + " 已出局！");
+    // 第一位存活玩家的座位，無人存活時回傳 -1
+    public int firstAliveSeat() {
+        return aliveMask == 0 ? -1 : Integer.numberOfTrailingZeros(aliveMask);
     }
 
-    
-    // 核心任務：序列化狀態為字串同步包 
-    // 格式：UPDATE|CURRENT_NUM|DIRECTION|CURRENT_PLAYER|PLAYER_DATA
-    public String serializeState(String targetPlayerId) {
-        StringBuilder sb = new StringBuilder("UPDATE|");
-        sb.append(currentNumber).append("|");
-        sb.append(isClockwise ? "CW" : "CCW").append("|");
-        sb.append(players.get(currentPlayerIdx)).append("|");
-
-        for (int i = 0; i < players.size(); i++) {
-            String id = players.get(i);
-            sb.append(id).append(":");
-            sb.append(playerAliveStatus.get(id) ? "1" : "0").append(":");
-            
-            // 隱私邏輯：若為接收者本人，隱藏陷阱數字 
-            if (id.equals(targetPlayerId)) {
-                sb.append("?");
-            } else {
-                sb.append(traps.get(id));
-            }
-            if (i < players.size() - 1) sb.append(";");
-        }
+    public int getTrap(int seat) { return traps[seat]; }
 
-        sb.append("|").append(roundCount);
-        sb.append("|").append(returnLimit.getOrDefault(targetPlayerId, 0));
-        sb.append("|").append(passLimit.getOrDefault(targetPlayerId, 0));
-        return sb.toString();
+    public DeathHistoryLogger deathHistory() { return deaths; }
+
+    public int getTrap(String id) { return traps[seatOf(id)]; }
+
+    public void setPlayerOut(int seat) {
+        aliveMask &= ~(1 << seat);
+        ServerLog.debug("玩家 {} 已出局！", players.get(seat));
+    }
+
+    public int returnLeft(int seat) {
+        return (int) (counters >>> (seat * COUNTER_BITS)) & 0xF;
+    }
+
+    public int passLeft(int seat) {
+        return (int) (counters >>> (seat * COUNTER_BITS + 4)) & 0xF;
+    }
+
+    private void setReturnLeft(int seat, int value) {
+        int shift = seat * COUNTER_BITS;
+        counters = (counters & ~(0xFL << shift)) | ((long) value << shift);
+    }
+
+    private void setPassLeft(int seat, int value) {
+        int shift = seat * COUNTER_BITS + 4;
+        counters = (counters & ~(0xFL << shift)) | ((long) value << shift);
+    }
+
+    // 建立一份不可變的快照：共用部分只序列化一次，之後可對每位接收者產生完整 UPDATE 或差異 DELTA
+    public Snapshot snapshot(long seq) {
+        return new Snapshot(this, seq);
     }
 
     public void resetGame() {
@@ -83,30 +150,132 @@ public class GameState {
         
         this.roundCount = 1;
         
-        for (String playerId : players) {
-            playerAliveStatus.put(playerId, true);
-        }
+        aliveMask = (1 << players.size()) - 1;
         
         this.isClockwise = true;
         this.currentPlayerIdx = 0;
+        deaths.clear();
 
-        System.out.println("遊戲已重置，輪數回到: " + roundCount);
+        ServerLog.debug("遊戲已重置，輪數回到: {}", roundCount);
     }
     
 
-    public boolean useReturn(String id) {
-        if (returnLimit.getOrDefault(id, 0) > 0) {
-            returnLimit.put(id, 0); // 使用後歸零
+    public boolean useReturn(int seat) {
+        if (returnLeft(seat) > 0) {
+            setReturnLeft(seat, 0); // 使用後歸零
             return true;
         }
         return false;
     }
 
-    public boolean usePass(String id) {
-        if (passLimit.getOrDefault(id, 0) > 0) {
-            passLimit.put(id, 0); // 使用後歸零
+    public boolean usePass(int seat) {
+        if (passLeft(seat) > 0) {
+            setPassLeft(seat, 0); // 使用後歸零
             return true;
         }
         return false;
     }
+
+    /**
+     * 某一時刻的遊戲狀態快照。
+     * <p>
+     * 完整格式 (每位接收者一份，本人的陷阱以 ? 隱藏，return/pass 次數為本人的)：
+     * UPDATE|目前數字|方向|當前玩家|玩家清單|輪數|return次數|pass次數|序號
+     * <p>
+     * 差異格式 (未變動的欄位留空；基準序號為差異所依據的上一份狀態，接收者持有的序號不同時不可套用)：
+     * DELTA|基準序號|序號|目前數字|方向|當前玩家|存活狀態(依座位以 : 串接)|輪數|return次數|pass次數
+     */
+    public static final class Snapshot {
+        public final long seq;
+        private final int currentNumber;
+        private final boolean clockwise;
+        private final String currentPlayer;
+        private final int roundCount;
+        private final List<String> players;
+        private final boolean[] alive;
+        private final int[] returnLeft;
+        private final int[] passLeft;
+
+        // 共用部分，每次廣播只建立一次
+        private final String header;
+        private final String[] openSegments;   // 其他人看到的 id:存活:陷阱
+        private final String[] hiddenSegments; // 本人看到的 id:存活:?
+
+        private Snapshot(GameState s, long seq) {
+            this.seq = seq;
+            this.currentNumber = s.currentNumber;
+            this.clockwise = s.isClockwise;
+            this.currentPlayer = s.players.get(s.currentPlayerIdx);
+            this.roundCount = s.roundCount;
+            this.players = new ArrayList<>(s.players);
+
+            int n = players.size();
+            alive = new boolean[n];
+            returnLeft = new int[n];
+            passLeft = new int[n];
+            openSegments = new String[n];
+            hiddenSegments = new String[n];
+            for (int i = 0; i < n; i++) {
+                String id = players.get(i);
+                alive[i] = s.isAlive(i);
+                returnLeft[i] = s.returnLeft(i);
+                passLeft[i] = s.passLeft(i);
+                String prefix = id + ":" + (alive[i] ? "1" : "0") + ":";
+                openSegments[i] = prefix + s.traps[i];
+                hiddenSegments[i] = prefix + "?";
+            }
+            header = "UPDATE|" + currentNumber + "|" + (clockwise ? "CW" : "CCW") + "|" + currentPlayer + "|";
+        }
+
+        // 完整快照，只替換接收者本人的陷阱欄位與剩餘次數
+        public String forPlayer(String targetPlayerId) {
+            int seat = players.indexOf(targetPlayerId);
+            StringBuilder sb = new StringBuilder(header.length() + 16 * players.size() + 24);
+            sb.append(header);
+            for (int i = 0; i < players.size(); i++) {
+                if (i > 0) sb.append(";");
+                sb.append(i == seat ? hiddenSegments[i] : openSegments[i]);
+            }
+            sb.append("|").append(roundCount);
+            sb.append("|").append(seat >= 0 ? returnLeft[seat] : 0);
+            sb.append("|").append(seat >= 0 ? passLeft[seat] : 0);
+            sb.append("|").append(seq);
+            return sb.toString();
+        }
+
+        // 差異的共用部分 (到輪數為止)；玩家清單不同 (不同局) 時無法產生差異，回傳 null
+        public String sharedDelta(Snapshot prev) {
+            if (prev == null || !players.equals(prev.players))
+                return null;
+
+            StringBuilder sb = new StringBuilder(32);
+            sb.append("DELTA|").append(prev.seq).append("|").append(seq).append("|");
+            if (currentNumber != prev.currentNumber) sb.append(currentNumber);
+            sb.append("|");
+            if (clockwise != prev.clockwise) sb.append(clockwise ? "CW" : "CCW");
+            sb.append("|");
+            if (!currentPlayer.equals(prev.currentPlayer)) sb.append(currentPlayer);
+            sb.append("|");
+            if (!Arrays.equals(alive, prev.alive)) {
+                for (int i = 0; i < alive.length; i++) {
+                    if (i > 0) sb.append(":");
+                    sb.append(alive[i] ? "1" : "0");
+                }
+            }
+            sb.append("|");
+            if (roundCount != prev.roundCount) sb.append(roundCount);
+            sb.append("|");
+            return sb.toString();
+        }
+
+        // 差異的個人部分：只有接收者本人的剩餘次數有變動時才帶值
+        public String counterDelta(Snapshot prev, String targetPlayerId) {
+            int seat = players.indexOf(targetPlayerId);
+            if (seat < 0)
+                return "|";
+            String ret = returnLeft[seat] != prev.returnLeft[seat] ? String.valueOf(returnLeft[seat]) : "";
+            String pass = passLeft[seat] != prev.passLeft[seat] ? String.valueOf(passLeft[seat]) : "";
+            return ret + "|" + pass;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,719 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 內嵌式帳號庫：追加式紀錄檔 ({@code accounts-N.log}) 加上記憶體映射的雜湊索引 ({@code accounts-N.idx})，
+ * 帳號數到百萬等級也不必在啟動時全部讀入。
+ * <p>
+ * 啟動時只映射索引檔；查詢由索引 (開放定址、線性探測，每格存雜湊值與紀錄位置) 找到紀錄位置，
+ * 再從紀錄檔讀出該筆，熱門帳號由作業系統的頁快取負責快取。每筆紀錄為
+ * {@code [長度][CRC32][帳號長度][帳號][credential 長度][credential]}。
+ * 更新 credential 時追加新紀錄並改指索引，舊紀錄成為垃圾；垃圾超過紀錄檔一半時在背景壓實成下一代檔案。
+ * <p>
+ * 新增帳號只在寫鎖內寫入紀錄與索引，fsync 在鎖外等待：同時等待的註冊由第一個發起 force 的執行緒一起提交
+ * (group commit)。索引只是紀錄檔的衍生資料，正常關閉時才標記為完整；啟動時沒有標記 (例如當機) 就掃描紀錄檔重建，
+ * 並截掉尾端寫到一半的紀錄。
+ */
+class IndexedAccountStore implements AccountStore {
+    private static final long LOG_MAGIC = 0x464E_4143_4354_4C31L; // "FNACCTL1"
+    private static final int INDEX_MAGIC = 0x464E_4958; // "FNIX"
+    private static final int LOG_HEADER = 8;
+    private static final int MAX_RECORD = 0x20004;
+    // 索引檔：64 位元組檔頭，之後每格 12 位元組 (int 雜湊 + long 紀錄位置，0 表示空格)
+    private static final int HEADER = 64;
+    private static final int SLOT = 12;
+    private static final int H_CAPACITY = 4, H_COUNT = 8, H_CLEAN = 12, H_COVERED = 16, H_GARBAGE = 24;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final long COMPACT_MIN_GARBAGE = 1L << 20;
+    private static final String PREFIX = "accounts-";
+
+    private static final class Record {
+        final String username;
+        final String credential;
+        final int size;
+
+        Record(String username, String credential, int size) {
+            this.username = username;
+            this.credential = credential;
+            this.size = size;
+        }
+    }
+
+    private final Path dir;
+    private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "account-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LongAdder commits = new LongAdder();
+    // 以下受 rw 保護：查詢持讀鎖，寫入與擴充持寫鎖；壓實複製索引時持讀鎖，換檔時持寫鎖
+    private int generation;
+    private volatile FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long end;
+    private long garbage;
+    private boolean compacting;
+    private boolean closed;
+    // group commit 的位置以「邏輯位置 = base + 紀錄檔內位置」表示，壓實換檔後仍單調遞增
+    private final Object commitLock = new Object();
+    private long base;
+    private volatile long written;
+    private long durable;
+    private boolean syncing;
+
+    private IndexedAccountStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 開啟 (或建立) 目錄中的帳號庫；上次沒有正常關閉時會先重建索引。
+     */
+    static IndexedAccountStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        IndexedAccountStore store = new IndexedAccountStore(dir);
+        store.load();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                ServerLog.error("關閉帳號庫失敗", e);
+            }
+        }, "account-store-close"));
+        return store;
+    }
+
+    private void load() throws IOException {
+        // 只保留最新一代；較舊的是壓實完成前留下的，.tmp 是壓實或擴充到一半的檔案
+        generation = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".log"))
+                    generation = Math.max(generation, parseGeneration(name));
+            }
+        }
+        if (generation == 0)
+            generation = 1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".tmp") || parseGeneration(name) != generation)
+                    Files.deleteIfExists(p);
+            }
+        }
+
+        log = FileChannel.open(logPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER) {
+            log.truncate(0);
+            writeFully(log, ByteBuffer.allocate(LOG_HEADER).putLong(0, LOG_MAGIC), 0);
+            log.force(true);
+        } else if (readFully(log, LOG_HEADER, 0).getLong(0) != LOG_MAGIC) {
+            throw new IOException("不是帳號紀錄檔: " + logPath(generation));
+        }
+
+        if (!openIndex()) {
+            long start = System.nanoTime();
+            rebuildIndex();
+            if (count > 0)
+                ServerLog.info("已由紀錄檔重建帳號索引: {} 個帳號，{} ms", count, (System.nanoTime() - start) / 1_000_000);
+        }
+        // 開啟期間索引不算完整，當機後下次啟動會重建
+        index.putInt(H_CLEAN, 0);
+        index.force();
+        log.force(true);
+        written = durable = end;
+    }
+
+    private static int parseGeneration(String name) {
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private Path logPath(int gen) {
+        return dir.resolve(String.format(PREFIX + "%06d.log", gen));
+    }
+
+    private Path indexPath(int gen) {
+        return dir.resolve(String.format(PREFIX + "%06d.idx", gen));
+    }
+
+    private static Path tmpPath(Path p) {
+        return p.resolveSibling(p.getFileName() + ".tmp");
+    }
+
+    // 上次正常關閉且涵蓋整個紀錄檔的索引才直接沿用
+    private boolean openIndex() throws IOException {
+        Path p = indexPath(generation);
+        if (!Files.exists(p) || Files.size(p) < HEADER)
+            return false;
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer h = readFully(ch, HEADER, 0);
+        int cap = h.getInt(H_CAPACITY);
+        boolean valid = h.getInt(0) == INDEX_MAGIC && h.getInt(H_CLEAN) == 1
+                && h.getLong(H_COVERED) == log.size()
+                && cap > 0 && Integer.bitCount(cap) == 1 && ch.size() == HEADER + (long) cap * SLOT;
+        if (!valid) {
+            ch.close();
+            return false;
+        }
+        indexChannel = ch;
+        index = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+        capacity = cap;
+        count = h.getInt(H_COUNT);
+        garbage = h.getLong(H_GARBAGE);
+        end = log.size();
+        return true;
+    }
+
+    private void rebuildIndex() throws IOException {
+        long size = log.size();
+        int cap = INITIAL_CAPACITY;
+        // 每筆紀錄至少十幾個位元組，依檔案大小預估容量以減少擴充次數
+        while (cap < size / 16 && cap < (1 << 27))
+            cap <<= 1;
+        Path p = indexPath(generation);
+        Files.deleteIfExists(p);
+        indexChannel = FileChannel.open(p, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        index = mapIndex(indexChannel, cap);
+        capacity = cap;
+        count = 0;
+        garbage = 0;
+
+        long pos = LOG_HEADER;
+        log.position(pos);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), 1 << 16));
+        CRC32 crc = new CRC32();
+        try {
+            while (pos + 8 <= size) {
+                int len = in.readInt();
+                int sum = in.readInt();
+                if (len < 4 || len > MAX_RECORD || pos + 8 + len > size)
+                    break;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != sum)
+                    break;
+                String username = decode(payload, 8 + len).username;
+                indexRecord(username, pos, 8 + len);
+                pos += 8 + len;
+            }
+        } catch (EOFException e) {
+            // 尾端不完整，由下方截除
+        }
+        if (pos != size) {
+            ServerLog.warn("帳號紀錄檔尾端有 {} 位元組不完整，已截除", size - pos);
+            log.truncate(pos);
+            log.force(true);
+        }
+        end = pos;
+        writeHeader(index, capacity, 0);
+    }
+
+    // 重建時把一筆紀錄登錄進索引；同一帳號後面的紀錄取代前面的
+    private void indexRecord(String username, long offset, int size) throws IOException {
+        int h = hash(username);
+        int slot = findSlot(username, h);
+        long previous = slotOffset(index, slot);
+        if (previous == 0) {
+            count++;
+        } else {
+            garbage += readRecord(previous).size;
+        }
+        putSlot(index, slot, h, offset);
+        growIfNeeded();
+    }
+
+    private static MappedByteBuffer mapIndex(FileChannel ch, int cap) throws IOException {
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) cap * SLOT);
+        m.putInt(0, INDEX_MAGIC);
+        m.putInt(H_CAPACITY, cap);
+        return m;
+    }
+
+    private void writeHeader(MappedByteBuffer m, int cap, int clean) {
+        m.putInt(0, INDEX_MAGIC);
+        m.putInt(H_CAPACITY, cap);
+        m.putInt(H_COUNT, count);
+        m.putInt(H_CLEAN, clean);
+        m.putLong(H_COVERED, end);
+        m.putLong(H_GARBAGE, garbage);
+    }
+
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long slotOffset(MappedByteBuffer m, int slot) {
+        return m.getLong(HEADER + slot * SLOT + 4);
+    }
+
+    private static int slotHash(MappedByteBuffer m, int slot) {
+        return m.getInt(HEADER + slot * SLOT);
+    }
+
+    private static void putSlot(MappedByteBuffer m, int slot, int h, long offset) {
+        m.putInt(HEADER + slot * SLOT, h);
+        m.putLong(HEADER + slot * SLOT + 4, offset);
+    }
+
+    // 回傳該帳號所在的格子，不存在時回傳探測序列上的第一個空格
+    private int findSlot(String username, int h) throws IOException {
+        return findSlot(index, capacity, log, username, h);
+    }
+
+    private static int findSlot(MappedByteBuffer m, int cap, FileChannel ch, String username, int h) throws IOException {
+        int mask = cap - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            long offset = slotOffset(m, i);
+            if (offset == 0)
+                return i;
+            if (slotHash(m, i) == h) {
+                byte[] payload = readPayload(ch, offset);
+                if (decode(payload, 8 + payload.length).username.equals(username))
+                    return i;
+            }
+        }
+    }
+
+    @Override
+    public String get(String username) throws IOException {
+        rw.readLock().lock();
+        try {
+            ensureOpen();
+            long offset = slotOffset(index, findSlot(username, hash(username)));
+            return offset == 0 ? null : readRecord(offset).credential;
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean add(String username, String credential) throws IOException {
+        ByteBuffer record = encode(username, credential);
+        long target;
+        rw.writeLock().lock();
+        try {
+            ensureOpen();
+            int h = hash(username);
+            int slot = findSlot(username, h);
+            if (slotOffset(index, slot) != 0)
+                return false;
+            putSlot(index, slot, h, append(record));
+            count++;
+            target = written;
+            growIfNeeded();
+        } finally {
+            rw.writeLock().unlock();
+        }
+        awaitDurable(target);
+        return true;
+    }
+
+    @Override
+    public boolean update(String username, String credential) throws IOException {
+        ByteBuffer record = encode(username, credential);
+        long target;
+        rw.writeLock().lock();
+        try {
+            ensureOpen();
+            int h = hash(username);
+            int slot = findSlot(username, h);
+            long previous = slotOffset(index, slot);
+            if (previous == 0)
+                return false;
+            int previousSize = readRecord(previous).size;
+            putSlot(index, slot, h, append(record));
+            garbage += previousSize;
+            target = written;
+            if (!compacting && garbage >= COMPACT_MIN_GARBAGE && garbage * 2 > end) {
+                compacting = true;
+                compactor.execute(this::compact);
+            }
+        } finally {
+            rw.writeLock().unlock();
+        }
+        awaitDurable(target);
+        return true;
+    }
+
+    /**
+     * 匯入多個帳號 (例如舊的 users.txt)，已存在的略過；全部寫入後只 fsync 一次。回傳實際新增的數量。
+     */
+    int importAll(Map<String, String> accounts) throws IOException {
+        int added = 0;
+        long target;
+        rw.writeLock().lock();
+        try {
+            ensureOpen();
+            for (Map.Entry<String, String> e : accounts.entrySet()) {
+                int h = hash(e.getKey());
+                int slot = findSlot(e.getKey(), h);
+                if (slotOffset(index, slot) != 0)
+                    continue;
+                putSlot(index, slot, h, append(encode(e.getKey(), e.getValue())));
+                count++;
+                added++;
+                growIfNeeded();
+            }
+            target = written;
+        } finally {
+            rw.writeLock().unlock();
+        }
+        awaitDurable(target);
+        return added;
+    }
+
+    @Override
+    public int size() {
+        rw.readLock().lock();
+        try {
+            return count;
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    // 目前為止實際執行的 fsync 次數 (基準測試用來計算每次提交平均涵蓋幾筆註冊)
+    long commitCount() {
+        return commits.sum();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("帳號庫已關閉");
+    }
+
+    private static ByteBuffer encode(String username, String credential) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] cred = credential.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF || cred.length > 0xFFFF)
+            throw new IllegalArgumentException("帳號或 credential 過長");
+        int len = 2 + name.length + 2 + cred.length;
+        ByteBuffer b = ByteBuffer.allocate(8 + len);
+        b.putInt(len).putInt(0).putShort((short) name.length).put(name).putShort((short) cred.length).put(cred);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 8, len);
+        b.putInt(4, (int) crc.getValue());
+        b.flip();
+        return b;
+    }
+
+    private static Record decode(byte[] payload, int size) {
+        ByteBuffer b = ByteBuffer.wrap(payload);
+        int nameLen = b.getShort() & 0xFFFF;
+        String username = new String(payload, 2, nameLen, StandardCharsets.UTF_8);
+        b.position(2 + nameLen);
+        int credLen = b.getShort() & 0xFFFF;
+        String credential = new String(payload, 4 + nameLen, credLen, StandardCharsets.UTF_8);
+        return new Record(username, credential, size);
+    }
+
+    private Record readRecord(long offset) throws IOException {
+        byte[] payload = readPayload(log, offset);
+        return decode(payload, 8 + payload.length);
+    }
+
+    // 讀出並驗證一筆紀錄的內容 (不含長度與 CRC)
+    private static byte[] readPayload(FileChannel ch, long offset) throws IOException {
+        ByteBuffer head = readFully(ch, 8, offset);
+        int len = head.getInt(0);
+        if (len < 4 || len > MAX_RECORD)
+            throw new IOException("帳號紀錄損毀，位置 " + offset);
+        byte[] payload = readFully(ch, len, offset + 8).array();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != head.getInt(4))
+            throw new IOException("帳號紀錄 CRC 不符，位置 " + offset);
+        return payload;
+    }
+
+    // 寫在目前檔尾，回傳紀錄位置；寫入失敗時檔尾不前進，殘留的位元組會被下一筆覆蓋
+    private long append(ByteBuffer record) throws IOException {
+        long offset = end;
+        end = writeFully(log, record, offset);
+        written = base + end;
+        return offset;
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            position += ch.write(b, position);
+        }
+        return position;
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int len, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (ch.read(b, position + b.position()) < 0)
+                throw new EOFException("帳號紀錄檔提早結束，位置 " + position);
+        }
+        return b;
+    }
+
+    /**
+     * 等到邏輯位置 target 之前的資料都已 fsync。沒有人在 force 時自己發起一次並涵蓋目前所有已寫入的紀錄；
+     * 已有人在 force 時等它結束，仍不足再發起下一次。
+     */
+    private void awaitDurable(long target) throws IOException {
+        while (true) {
+            long upTo;
+            synchronized (commitLock) {
+                while (syncing && durable < target) {
+                    try {
+                        commitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("等待帳號寫入磁碟時被中斷");
+                    }
+                }
+                if (durable >= target)
+                    return;
+                syncing = true;
+                upTo = written;
+            }
+            boolean ok = false;
+            try {
+                log.force(false);
+                commits.increment();
+                ok = true;
+            } finally {
+                synchronized (commitLock) {
+                    syncing = false;
+                    if (ok && upTo > durable)
+                        durable = upTo;
+                    commitLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // 持寫鎖呼叫：負載超過 0.7 時容量加倍，寫好新索引後才取代舊檔
+    private void growIfNeeded() throws IOException {
+        if (count * 10L <= capacity * 7L)
+            return;
+        int newCapacity = capacity * 2;
+        Path p = indexPath(generation);
+        Path tmp = tmpPath(p);
+        FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer m = mapIndex(ch, newCapacity);
+        copySlots(index, capacity, m, newCapacity);
+        writeHeader(m, newCapacity, 0);
+        m.force();
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexChannel.close();
+        indexChannel = ch;
+        index = m;
+        capacity = newCapacity;
+    }
+
+    // 依存下的雜湊值重新探測，不需要讀紀錄檔
+    private static void copySlots(MappedByteBuffer from, int fromCapacity, MappedByteBuffer to, int toCapacity) {
+        int mask = toCapacity - 1;
+        for (int i = 0; i < fromCapacity; i++) {
+            long offset = slotOffset(from, i);
+            if (offset == 0)
+                continue;
+            int h = slotHash(from, i);
+            int j = h & mask;
+            while (slotOffset(to, j) != 0)
+                j = (j + 1) & mask;
+            putSlot(to, j, h, offset);
+        }
+    }
+
+    /**
+     * 背景壓實，分三段進行，寫鎖只在最後換檔時持有：
+     * 讀鎖內把索引的格子複製到下一代索引 (寫入只等這一段)；不持鎖把這些格子指到的紀錄複製到下一代紀錄檔
+     * (舊紀錄檔只在尾端追加，已複製範圍內的內容不會改變)；最後取寫鎖補上期間新追加的紀錄並換檔。
+     * 紀錄檔先 fsync 並改名 (改名後即視為完整)，再放上新索引、刪除舊一代；中途當機時啟動會選用最新一代完整的紀錄檔並重建索引。
+     */
+    private void compact() {
+        // generation 只由壓實執行緒修改
+        int next = generation + 1;
+        Path logTmp = tmpPath(logPath(next));
+        Path indexTmp = tmpPath(indexPath(next));
+        FileChannel newLog = null;
+        FileChannel newIndexChannel = null;
+        boolean swapped = false;
+        try {
+            newLog = FileChannel.open(logTmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            newIndexChannel = FileChannel.open(indexTmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            FileChannel oldLog;
+            int copiedCapacity;
+            long copiedEnd;
+            MappedByteBuffer newIndex;
+            rw.readLock().lock();
+            try {
+                ensureOpen();
+                oldLog = log;
+                copiedCapacity = capacity;
+                copiedEnd = end;
+                newIndex = mapIndex(newIndexChannel, copiedCapacity);
+                newIndex.put(HEADER, index, HEADER, copiedCapacity * SLOT);
+            } finally {
+                rw.readLock().unlock();
+            }
+
+            // 格子內的位置先是舊紀錄檔的，逐格改成複製到新紀錄檔後的位置
+            long pos = writeFully(newLog, ByteBuffer.allocate(LOG_HEADER).putLong(0, LOG_MAGIC), 0);
+            for (int i = 0; i < copiedCapacity; i++) {
+                long offset = slotOffset(newIndex, i);
+                if (offset == 0)
+                    continue;
+                putSlot(newIndex, i, slotHash(newIndex, i), pos);
+                pos = writeRecord(newLog, readPayload(oldLog, offset), pos);
+            }
+
+            rw.writeLock().lock();
+            try {
+                ensureOpen();
+                awaitDurable(written);
+                long before = end;
+                if (capacity != copiedCapacity) {
+                    // 複製期間索引擴充過：先搬到同樣大小的索引，補上的紀錄才不會超過負載上限
+                    Path grownTmp = tmpPath(indexTmp);
+                    FileChannel grown = FileChannel.open(grownTmp, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    MappedByteBuffer m = mapIndex(grown, capacity);
+                    copySlots(newIndex, copiedCapacity, m, capacity);
+                    newIndexChannel.close();
+                    Files.move(grownTmp, indexTmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    newIndexChannel = grown;
+                    newIndex = m;
+                }
+                // 複製期間追加的紀錄 (新帳號或更新)：依序寫到新紀錄檔並改指新索引，被取代的計入新一代的垃圾
+                long newGarbage = 0;
+                for (long p = copiedEnd; p < end; ) {
+                    byte[] payload = readPayload(log, p);
+                    p += 8 + payload.length;
+                    String username = decode(payload, 8 + payload.length).username;
+                    int h = hash(username);
+                    int slot = findSlot(newIndex, capacity, newLog, username, h);
+                    long previous = slotOffset(newIndex, slot);
+                    if (previous != 0)
+                        newGarbage += 8 + readPayload(newLog, previous).length;
+                    putSlot(newIndex, slot, h, pos);
+                    pos = writeRecord(newLog, payload, pos);
+                }
+                newLog.force(true);
+                Files.move(logTmp, logPath(next), StandardCopyOption.ATOMIC_MOVE);
+
+                long logical = written;
+                end = pos;
+                garbage = newGarbage;
+                writeHeader(newIndex, capacity, 0);
+                newIndex.force();
+                Files.move(indexTmp, indexPath(next), StandardCopyOption.ATOMIC_MOVE);
+
+                FileChannel oldIndexChannel = indexChannel;
+                int old = generation;
+                generation = next;
+                log = newLog;
+                indexChannel = newIndexChannel;
+                index = newIndex;
+                swapped = true;
+                synchronized (commitLock) {
+                    base = logical;
+                    written = base + end;
+                    durable = written;
+                }
+                ServerLog.info("帳號紀錄檔已壓實: {} → {} 位元組", before, end);
+
+                // 已換到新一代，舊檔刪除失敗也只是下次啟動時再清
+                oldLog.close();
+                oldIndexChannel.close();
+                Files.deleteIfExists(logPath(old));
+                Files.deleteIfExists(indexPath(old));
+            } finally {
+                rw.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            ServerLog.error("壓實帳號紀錄檔失敗", e);
+            if (!swapped) {
+                // 還沒換代：新一代的檔案 (包括已改名的紀錄檔) 都不能留下，否則下次啟動會選到它而遺失之後的紀錄
+                try {
+                    if (newLog != null)
+                        newLog.close();
+                    if (newIndexChannel != null)
+                        newIndexChannel.close();
+                    Files.deleteIfExists(logTmp);
+                    Files.deleteIfExists(indexTmp);
+                    Files.deleteIfExists(tmpPath(indexTmp));
+                    Files.deleteIfExists(logPath(next));
+                    Files.deleteIfExists(indexPath(next));
+                } catch (IOException ignored) {
+                    // 下次啟動時會清除 .tmp；正式檔名刪不掉時只能留待人工處理
+                }
+            }
+        } finally {
+            rw.writeLock().lock();
+            compacting = false;
+            rw.writeLock().unlock();
+        }
+    }
+
+    // 寫入一筆紀錄 (長度、CRC 與內容)，回傳寫完後的位置
+    private static long writeRecord(FileChannel ch, byte[] payload, long pos) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(8);
+        head.putInt(0, payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        head.putInt(4, (int) crc.getValue());
+        pos = writeFully(ch, head, pos);
+        return writeFully(ch, ByteBuffer.wrap(payload), pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        rw.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            awaitDurable(written);
+            writeHeader(index, capacity, 1);
+            index.force();
+            log.close();
+            indexChannel.close();
+            closed = true;
+        } finally {
+            rw.writeLock().unlock();
+            compactor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 大廳房間列表的增量推送。
+ * <p>
+ * 伺服器維護一份帶版本號的房間列表，所有異動與快照都在同一個信箱內依序處理，
+ * 因此每位訂閱者收到的快照與之後的事件順序一致。協商了 {@code LOBBY_FEED} 的客戶端：
+ * <ul>
+ * <li>登入或送出 {@code GET_ROOMS[|已知版本]} 時，版本不同才收到分頁快照
+ * {@code ROOM_LIST|版本|頁次|是否最後一頁(1/0)|房號|名稱|人數|...} (第 0 頁表示清空重建)；
+ * 版本相同只收到 {@code ROOM_SYNCED|版本}</li>
+ * <li>之後在大廳時收到 {@code ROOM_ADD|版本|房號|名稱|人數}、{@code ROOM_UPD|版本|房號|人數}、
+ * {@code ROOM_DEL|版本|房號}；版本每次加 1，客戶端發現跳號就以 GET_ROOMS 重新同步</li>
+ * </ul>
+ * 舊客戶端在大廳時改收相同異動的 {@code NEW_ROOM|房號|名稱|人數} (人數 0 表示移除)。
+ * 遊戲中的玩家不會收到任何大廳事件。
+ */
+class LobbyFeed {
+    static final String FEATURE = "LOBBY_FEED";
+    // 每頁最多的房間數與字元數 (二進位框架上限為 64KB)
+    private static final int PAGE_SIZE = 100;
+    private static final int PAGE_CHARS = 16 * 1024;
+
+    private static final class Entry {
+        final String name;
+        int count;
+
+        Entry(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    private final SerialExecutor mailbox;
+    private final Iterable<ClientHandler> handlers;
+    private final LongAdder events;
+    private final LongAdder snapshots;
+    private final LatencyHistogram publishLatency;
+    private final ServerMetrics metrics;
+    // 以下只在信箱內讀寫
+    private final Map<String, Entry> rooms = new LinkedHashMap<>();
+    private long version = 0;
+    private volatile long publishedVersion = 0;
+
+    LobbyFeed(Executor workers, Iterable<ClientHandler> handlers, ServerMetrics metrics) {
+        this.mailbox = new SerialExecutor(workers);
+        this.handlers = handlers;
+        this.events = metrics.counter("lobby.events");
+        this.snapshots = metrics.counter("lobby.snapshots");
+        this.publishLatency = metrics.histogram("broadcast.lobby");
+        this.metrics = metrics;
+        metrics.gauge("lobby.version", () -> publishedVersion);
+    }
+
+    private void execute(Runnable task) {
+        mailbox.execute(() -> SendBatch.run(task));
+    }
+
+    /**
+     * 房間有異動 (建立、加入、離開、關閉) 時呼叫。人數在信箱內才讀取，
+     * 多個異動的先後順序因此不影響結果：列表一定收斂到房間最後的狀態。
+     */
+    void roomChanged(GameServer.GameRoom room) {
+        execute(() -> {
+            String id = room.getRoomId();
+            int count = room.getPlayerCount();
+            Entry entry = rooms.get(id);
+            if (count <= 0) {
+                if (entry == null) return;
+                rooms.remove(id);
+                publish("ROOM_DEL|" + (++version) + "|" + id, "NEW_ROOM|" + id + "|" + entry.name + "|0");
+            } else if (entry == null) {
+                rooms.put(id, new Entry(room.getRoomName(), count));
+                publish("ROOM_ADD|" + (++version) + "|" + id + "|" + room.getRoomName() + "|" + count,
+                        "NEW_ROOM|" + id + "|" + room.getRoomName() + "|" + count);
+            } else if (entry.count != count) {
+                entry.count = count;
+                publish("ROOM_UPD|" + (++version) + "|" + id + "|" + count,
+                        "NEW_ROOM|" + id + "|" + entry.name + "|" + count);
+            }
+        });
+    }
+
+    // 訂閱 (或重新同步)：knownVersion 與目前版本相同時不重送列表
+    void subscribe(ClientHandler h, long knownVersion) {
+        execute(() -> {
+            if (knownVersion == version) {
+                h.sendMessage("ROOM_SYNCED|" + version);
+                return;
+            }
+            snapshots.increment();
+            Iterator<Map.Entry<String, Entry>> it = rooms.entrySet().iterator();
+            int page = 0;
+            do {
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < PAGE_SIZE && body.length() < PAGE_CHARS && it.hasNext(); i++) {
+                    Map.Entry<String, Entry> e = it.next();
+                    body.append('|').append(e.getKey()).append('|').append(e.getValue().name)
+                            .append('|').append(e.getValue().count);
+                }
+                h.sendMessage("ROOM_LIST|" + version + "|" + page++ + "|" + (it.hasNext() ? 0 : 1) + body);
+            } while (it.hasNext());
+        });
+    }
+
+    // 只送給在大廳 (已登入且不在房間內) 的連線；只在信箱內呼叫 (HotPathBenchmark 以單執行緒直接呼叫)
+    void publish(String event, String legacy) {
+        long start = System.nanoTime();
+        publishedVersion = version;
+        events.increment();
+        for (ClientHandler h : handlers) {
+            if (h.getPlayerId() == null || h.getRoom() != null) continue;
+            h.sendMessage(h.hasFeature(FEATURE) ? event : legacy);
+        }
+        metrics.recordSince(publishLatency, start);
+    }
+}
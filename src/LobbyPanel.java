@@ -3,6 +3,9 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 遊戲大廳面板
@@ -28,6 +31,10 @@ public class LobbyPanel extends JPanel {
     private MainFrame frame;
     private GameClient client;
     private DefaultListModel<RoomInfo> roomListModel = new DefaultListModel<>();
+    // 房號 → 列表索引，與 roomListModel 同步維護，更新單一房間不必逐列比對
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private JButton btnQuickMatch;
+    private boolean matchQueued = false;
     private JList<RoomInfo> roomList;
 
     /**
@@ -66,12 +73,15 @@ public class LobbyPanel extends JPanel {
         JButton btnCreate = createStyledButton("建立房間");
         JButton btnJoin = createStyledButton("加入房間");
         JButton btnRefresh = createStyledButton("刷新列表");
+        btnQuickMatch = createStyledButton("快速配對");
 
         // 綁定事件監聽器
         btnCreate.addActionListener(e -> handleCreateRoom());
         btnJoin.addActionListener(e -> handleJoinRoom());
         btnRefresh.addActionListener(e -> handleRefresh());
+        btnQuickMatch.addActionListener(e -> handleQuickMatch());
 
+        btnPanel.add(btnQuickMatch);
         btnPanel.add(btnCreate);
         btnPanel.add(btnJoin);
         btnPanel.add(btnRefresh);
@@ -142,38 +152,75 @@ public class LobbyPanel extends JPanel {
         }
     }
 
+    // 排隊中再按一次即取消
+    private void handleQuickMatch() {
+        client.sendMessage(matchQueued ? "QUICK_MATCH_CANCEL" : "QUICK_MATCH");
+    }
+
+    /**
+     * 更新快速配對按鈕的狀態。
+     * 
+     * @param queued 是否正在排隊
+     * @param queueSize 目前排隊人數 (未排隊時忽略)
+     */
+    public void setMatchQueued(boolean queued, int queueSize) {
+        SwingUtilities.invokeLater(() -> {
+            matchQueued = queued;
+            btnQuickMatch.setText(queued ? "取消配對 (" + queueSize + " 人排隊中)" : "快速配對");
+        });
+    }
+
     private void handleRefresh() {
         roomListModel.clear();
-        client.sendMessage("GET_ROOMS");
+        rowById.clear();
+        client.requestRoomList(false);
     }
 
     /**
      * 更新或維護房間清單數據。
      * * @param id 房間唯一識別碼
      * 
-     * @param name  房間顯示名稱
-     * @param count 房間當前人數
+     * @param name  房間顯示名稱 (null 表示沿用原名稱)
+     * @param count 房間當前人數，0 表示移除
      */
     public void addRoomToList(String id, String name, int count) {
         SwingUtilities.invokeLater(() -> {
-            boolean found = false;
-            for (int i = 0; i < roomListModel.size(); i++) {
-                RoomInfo info = roomListModel.get(i);
-                if (info.id.equals(id)) {
-                    if (count <= 0) {
-                        roomListModel.remove(i);
-                    } else {
-                        // 這裡使用 RoomInfo(String, String, int) 建構子
-                        roomListModel.set(i, new RoomInfo(id, name, count));
-                    }
-                    found = true;
-                    break;
+            Integer row = rowById.get(id);
+            if (row == null) {
+                if (count > 0 && name != null) {
+                    rowById.put(id, roomListModel.size());
+                    roomListModel.addElement(new RoomInfo(id, name, count));
                 }
+            } else if (count <= 0) {
+                roomListModel.remove(row);
+                rowById.remove(id);
+                // 後面的列往前移一格
+                for (int i = row; i < roomListModel.size(); i++) {
+                    rowById.put(roomListModel.get(i).id, i);
+                }
+            } else {
+                RoomInfo old = roomListModel.get(row);
+                roomListModel.set(row, new RoomInfo(id, name != null ? name : old.name, count));
             }
+        });
+    }
 
-            if (!found && count > 0) {
-                roomListModel.addElement(new RoomInfo(id, name, count));
+    /**
+     * 套用一頁房間列表快照。
+     * 
+     * @param reset 是否先清空現有列表 (快照第一頁)
+     * @param rooms 這一頁的房間
+     */
+    public void applyRoomList(boolean reset, List<RoomInfo> rooms) {
+        SwingUtilities.invokeLater(() -> {
+            if (reset) {
+                roomListModel.clear();
+                rowById.clear();
+            }
+            for (RoomInfo info : rooms) {
+                rowById.put(info.id, roomListModel.size());
             }
+            roomListModel.addAll(rooms);
         });
     }
 
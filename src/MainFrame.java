@@ -1,5 +1,6 @@
 import javax.swing.*;
 import java.awt.*;
+import java.util.List;
 
 /**
  * 核心視窗容器：管理所有遊戲階段的切換 (AUTH, LOBBY, WAITING, GAME)
@@ -89,6 +90,20 @@ public class MainFrame extends JFrame {
         lobbyPanel.addRoomToList(id, name, count);
     }
 
+    /**
+     * 更新大廳的快速配對狀態
+     */
+    public void setMatchQueued(boolean queued, int queueSize) {
+        lobbyPanel.setMatchQueued(queued, queueSize);
+    }
+
+    /**
+     * 套用一頁房間列表快照 (reset 表示第一頁，先清空)
+     */
+    public void applyRoomList(boolean reset, List<RoomInfo> rooms) {
+        lobbyPanel.applyRoomList(reset, rooms);
+    }
+
     /**
      * 顯示遊戲結束結算對話框
      */
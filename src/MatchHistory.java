@@ -0,0 +1,427 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * 對局歷史與玩家統計 ({@code --match-history=DIR} 指定目錄，預設 {@code history})。
+ * <p>
+ * 每局結束時把玩家、出局順序 (DeathHistoryLogger 的座位、陷阱、輪數)、贏家與輪數追加到 {@code matches.log}，
+ * 每筆為 {@code [長度][CRC32][結束時間][輪數][人數][玩家...][贏家座位][出局數][座位 陷阱 輪數...]}。
+ * 房間信箱只把資料放進佇列；背景執行緒 (match-history-writer) 整批寫入、fsync 一次後才更新每位玩家的累計值
+ * (局數、勝場、存活輪數總和)，所以 {@code STATS|玩家} 只查一次雜湊表，不掃描歷史。
+ * <p>
+ * 累計值每 {@link #SNAPSHOT_INTERVAL} 局與正常關閉時寫成快照 ({@code stats.snap}，記錄涵蓋到紀錄檔的哪個位置)；
+ * 啟動時載入快照後只重播其後的紀錄，沒有快照或快照損毀時重播整個紀錄檔。尾端寫到一半的紀錄會被截除。
+ */
+class MatchHistory implements Closeable {
+    private static final long LOG_MAGIC = 0x464E_4D41_5443_4831L; // "FNMATCH1"
+    private static final int SNAP_MAGIC = 0x464E_5353; // "FNSS"
+    private static final int LOG_HEADER = 8;
+    private static final int MAX_RECORD = 1 << 16;
+    private static final int QUEUE_CAPACITY = 8192;
+    static final int SNAPSHOT_INTERVAL = 10_000;
+    private static final String LOG_FILE = "matches.log";
+    private static final String SNAP_FILE = "stats.snap";
+
+    /**
+     * 一位玩家的累計值 (不可變，每局結束時整份替換)。
+     */
+    static final class PlayerStats {
+        static final PlayerStats EMPTY = new PlayerStats(0, 0, 0);
+
+        final int games;
+        final int wins;
+        final long survivalRounds; // 每局存活到第幾輪的總和：出局者為出局的輪數，贏家為最後一輪
+
+        PlayerStats(int games, int wins, long survivalRounds) {
+            this.games = games;
+            this.wins = wins;
+            this.survivalRounds = survivalRounds;
+        }
+
+        double averageSurvival() {
+            return games == 0 ? 0 : (double) survivalRounds / games;
+        }
+    }
+
+    // 一局的結果，在房間信箱內從 GameState 複製出來，之後交給寫入執行緒
+    private static final class Match {
+        final long endedMillis;
+        final int rounds;
+        final String[] players;
+        final int winnerSeat;
+        final byte[] elimSeats;
+        final byte[] elimTraps;
+        final int[] elimRounds;
+
+        Match(long endedMillis, int rounds, String[] players, int winnerSeat, int eliminations) {
+            this.endedMillis = endedMillis;
+            this.rounds = rounds;
+            this.players = players;
+            this.winnerSeat = winnerSeat;
+            this.elimSeats = new byte[eliminations];
+            this.elimTraps = new byte[eliminations];
+            this.elimRounds = new int[eliminations];
+        }
+    }
+
+    // 放進佇列要求寫入執行緒寫完手上這一批後結束
+    private static final Match STOP = new Match(0, 0, new String[0], -1, 0);
+
+    private final BlockingQueue<Match> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // 帳號 (小寫) → 累計值；只有寫入執行緒 (與啟動時的重播) 會替換
+    private final Map<String, PlayerStats> stats = new ConcurrentHashMap<>();
+    private final LongAdder recorded;
+    private final LongAdder dropped;
+    private final LatencyHistogram commitLatency;
+    private volatile boolean enabled;
+    private Path dir;
+    private FileChannel log;
+    private Thread writer;
+    private long end;
+    private int sinceSnapshot;
+    private boolean closed;
+
+    MatchHistory(ServerMetrics metrics) {
+        this.recorded = metrics.counter("history.recorded");
+        this.dropped = metrics.counter("history.dropped");
+        this.commitLatency = metrics.histogram("history.commit");
+        metrics.gauge("history.players", stats::size);
+    }
+
+    void open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        load();
+        enabled = true;
+
+        writer = new Thread(this::writeLoop, "match-history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                ServerLog.error("關閉對局歷史失敗", e);
+            }
+        }, "match-history-close"));
+    }
+
+    /**
+     * 記錄一局結果；在房間信箱內、清除遊戲狀態之前呼叫。未啟用時直接返回。
+     */
+    void record(GameState state, int winnerSeat) {
+        if (!enabled) return;
+        DeathHistoryLogger deaths = state.deathHistory();
+        Match m = new Match(System.currentTimeMillis(), state.roundCount,
+                state.players.toArray(new String[0]), winnerSeat, deaths.size());
+        for (int i = 0; i < deaths.size(); i++) {
+            m.elimSeats[i] = (byte) deaths.seat(i);
+            m.elimTraps[i] = (byte) deaths.trap(i);
+            m.elimRounds[i] = deaths.round(i);
+        }
+        if (!queue.offer(m)) dropped.increment();
+    }
+
+    // O(1)：只查累計值；沒有紀錄的玩家回傳全為 0 的統計
+    PlayerStats stats(String playerId) {
+        return stats.getOrDefault(key(playerId), PlayerStats.EMPTY);
+    }
+
+    private static String key(String playerId) {
+        return playerId.trim().toLowerCase();
+    }
+
+    // --- 啟動 ---
+
+    private void load() throws IOException {
+        log = FileChannel.open(dir.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        if (log.size() < LOG_HEADER) {
+            log.truncate(0);
+            writeFully(log, header.putLong(0, LOG_MAGIC), 0);
+            log.force(true);
+        } else {
+            while (header.hasRemaining())
+                log.read(header, header.position());
+            if (header.getLong(0) != LOG_MAGIC)
+                throw new IOException("不是對局紀錄檔: " + dir.resolve(LOG_FILE));
+        }
+
+        long start = System.nanoTime();
+        long from = loadSnapshot();
+        int replayed = replay(from);
+        if (replayed > 0)
+            ServerLog.info("已重播 {} 局對局紀錄，{} ms", replayed, (System.nanoTime() - start) / 1_000_000);
+        // 重播的局數也算在下一次快照之前
+        sinceSnapshot = replayed;
+    }
+
+    // 讀入快照並回傳其涵蓋到的紀錄檔位置；快照不存在或無效時從頭重播
+    private long loadSnapshot() throws IOException {
+        Path p = dir.resolve(SNAP_FILE);
+        if (!Files.exists(p))
+            return LOG_HEADER;
+        byte[] data = Files.readAllBytes(p);
+        if (data.length < 4 + 8 + 4 + 4)
+            return LOG_HEADER;
+        ByteBuffer b = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if (b.getInt(0) != SNAP_MAGIC || (int) crc.getValue() != b.getInt(data.length - 4)) {
+            ServerLog.warn("玩家統計快照損毀，改為重播整個對局紀錄檔");
+            return LOG_HEADER;
+        }
+        long covered = b.getLong(4);
+        if (covered < LOG_HEADER || covered > log.size()) {
+            ServerLog.warn("玩家統計快照與對局紀錄檔不符，改為重播整個紀錄檔");
+            return LOG_HEADER;
+        }
+        int count = b.getInt(12);
+        b.position(16);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[b.getShort() & 0xFFFF];
+            b.get(name);
+            stats.put(new String(name, StandardCharsets.UTF_8), new PlayerStats(b.getInt(), b.getInt(), b.getLong()));
+        }
+        return covered;
+    }
+
+    private int replay(long from) throws IOException {
+        long size = log.size();
+        long pos = from;
+        int replayed = 0;
+        log.position(pos);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), 1 << 16));
+        CRC32 crc = new CRC32();
+        try {
+            while (pos + 8 <= size) {
+                int len = in.readInt();
+                int sum = in.readInt();
+                if (len < 14 || len > MAX_RECORD || pos + 8 + len > size)
+                    break;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != sum)
+                    break;
+                apply(decode(ByteBuffer.wrap(payload)));
+                pos += 8 + len;
+                replayed++;
+            }
+        } catch (EOFException | RuntimeException e) {
+            // 尾端不完整或無法解析，由下方截除
+        }
+        if (pos != size) {
+            ServerLog.warn("對局紀錄檔尾端有 {} 位元組不完整，已截除", size - pos);
+            log.truncate(pos);
+            log.force(true);
+        }
+        end = pos;
+        return replayed;
+    }
+
+    // --- 寫入 ---
+
+    private void writeLoop() {
+        List<Match> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                Match first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+                stop = batch.remove(STOP);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                ServerLog.error("寫入對局紀錄失敗", e);
+            }
+            batch.clear();
+        }
+    }
+
+    // 先寫入並 fsync，再更新累計值：快照內的累計值永遠恰好對應到它記錄的紀錄檔位置
+    private synchronized void writeBatch(List<Match> batch) throws IOException {
+        if (closed || batch.isEmpty()) return;
+        long start = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.allocate(batch.size() * 128);
+        CRC32 crc = new CRC32();
+        for (Match m : batch) {
+            byte[] payload = encode(m);
+            if (payload.length > MAX_RECORD) {
+                dropped.increment();
+                continue;
+            }
+            if (buffer.remaining() < payload.length + 8) {
+                ByteBuffer bigger = ByteBuffer.allocate((buffer.capacity() + payload.length + 8) * 2);
+                buffer.flip();
+                buffer = bigger.put(buffer);
+            }
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        buffer.flip();
+        end = writeFully(log, buffer, end);
+        log.force(false);
+        for (Match m : batch) {
+            apply(m);
+        }
+        recorded.add(batch.size());
+        commitLatency.record((System.nanoTime() - start) / 1000);
+
+        sinceSnapshot += batch.size();
+        if (sinceSnapshot >= SNAPSHOT_INTERVAL)
+            writeSnapshot();
+    }
+
+    // 每位玩家的累計值加上這一局
+    private void apply(Match m) {
+        int[] survival = new int[m.players.length];
+        Arrays.fill(survival, m.rounds);
+        for (int i = 0; i < m.elimSeats.length; i++) {
+            survival[m.elimSeats[i]] = m.elimRounds[i];
+        }
+        for (int seat = 0; seat < m.players.length; seat++) {
+            int win = seat == m.winnerSeat ? 1 : 0;
+            int rounds = survival[seat];
+            stats.compute(key(m.players[seat]), (k, s) -> s == null
+                    ? new PlayerStats(1, win, rounds)
+                    : new PlayerStats(s.games + 1, s.wins + win, s.survivalRounds + rounds));
+        }
+    }
+
+    // 快照期間累計值只會被這條執行緒修改，筆數與內容一致；先寫暫存檔再改名，當機時舊快照仍完整
+    private void writeSnapshot() throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + stats.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAP_MAGIC);
+        out.writeLong(end);
+        out.writeInt(stats.size());
+        for (Map.Entry<String, PlayerStats> e : stats.entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeInt(e.getValue().games);
+            out.writeInt(e.getValue().wins);
+            out.writeLong(e.getValue().survivalRounds);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path p = dir.resolve(SNAP_FILE);
+        Path tmp = p.resolveSibling(SNAP_FILE + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, ByteBuffer.wrap(bytes.toByteArray()), 0);
+            ch.force(true);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sinceSnapshot = 0;
+        ServerLog.debug("已寫入玩家統計快照: {} 位玩家，{} ms", stats.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            position += ch.write(b, position);
+        }
+        return position;
+    }
+
+    // --- 編碼 ---
+
+    private static byte[] encode(Match m) {
+        byte[][] names = new byte[m.players.length][];
+        int size = 8 + 4 + 1 + 1 + 1 + m.elimSeats.length * 6;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = m.players[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + names[i].length;
+        }
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putLong(m.endedMillis).putInt(m.rounds).put((byte) names.length);
+        for (byte[] name : names) {
+            b.putShort((short) name.length).put(name);
+        }
+        b.put((byte) m.winnerSeat).put((byte) m.elimSeats.length);
+        for (int i = 0; i < m.elimSeats.length; i++) {
+            b.put(m.elimSeats[i]).put(m.elimTraps[i]).putInt(m.elimRounds[i]);
+        }
+        return b.array();
+    }
+
+    private static Match decode(ByteBuffer b) {
+        long ended = b.getLong();
+        int rounds = b.getInt();
+        String[] players = new String[b.get() & 0xFF];
+        for (int i = 0; i < players.length; i++) {
+            byte[] name = new byte[b.getShort() & 0xFFFF];
+            b.get(name);
+            players[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        int winner = b.get();
+        Match m = new Match(ended, rounds, players, winner, b.get() & 0xFF);
+        for (int i = 0; i < m.elimSeats.length; i++) {
+            m.elimSeats[i] = b.get();
+            m.elimTraps[i] = b.get();
+            m.elimRounds[i] = b.getInt();
+        }
+        return m;
+    }
+
+    // 先等寫入執行緒寫完已取出的那一批，再寫出佇列中剩下的紀錄並更新快照，之後的 record 直接忽略。
+    // 不用 interrupt 停止寫入執行緒：FileChannel 在 I/O 途中被中斷會直接關閉
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed || !enabled)
+                return;
+            enabled = false;
+        }
+        try {
+            if (writer.isAlive()) {
+                queue.put(STOP);
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            List<Match> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            batch.remove(STOP);
+            writeBatch(batch);
+            writeSnapshot();
+            log.close();
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 快速配對佇列：玩家送出 {@code QUICK_MATCH} 後依到達順序排隊，
+ * 湊滿 {@link #MAX_PLAYERS} 人立即成局；最久的人等超過等待預算且至少 {@link #MIN_PLAYERS} 人時，
+ * 以目前人數成局。成局的玩家交給 {@link MatchStarter} 建房並直接開始遊戲。
+ * <p>
+ * 佇列只在自己的信箱內讀寫；等待預算的檢查排在共用計時器上，同一時間最多一個。
+ * 回覆：{@code MATCH_QUEUED|排隊人數}、{@code MATCH_FOUND|房號|名稱} (由 MatchStarter 送出)、
+ * {@code MATCH_CANCELLED}、{@code MATCH_FAIL|原因}。
+ */
+class MatchmakingService {
+    static final int MIN_PLAYERS = 2;
+    static final int MAX_PLAYERS = 4;
+
+    /**
+     * 替成局的玩家建立房間並開始遊戲；無法建立 (例如房間數已達上限) 時回傳 false。
+     * 在配對信箱內呼叫，不可阻塞。
+     */
+    interface MatchStarter {
+        boolean start(List<ClientHandler> players);
+    }
+
+    // requestedNanos 為收到指令的時間 (計算成局等待)；queuedNanos 為實際進入佇列的時間 (判斷等待預算)，
+    // 信箱積壓時不會因此提早以少人數成局
+    private static final class Ticket {
+        final ClientHandler handler;
+        final long requestedNanos;
+        final long queuedNanos;
+
+        Ticket(ClientHandler handler, long requestedNanos, long queuedNanos) {
+            this.handler = handler;
+            this.requestedNanos = requestedNanos;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private final SerialExecutor mailbox;
+    private final ScheduledExecutorService timer;
+    private final MatchStarter starter;
+    private volatile long maxWaitNanos;
+    private final LongAdder enqueued;
+    private final LongAdder cancelled;
+    private final LongAdder matchedPlayers;
+    private final LongAdder matches;
+    private final LongAdder failed;
+    private final LatencyHistogram timeToMatch;
+    // 以下只在信箱內讀寫：玩家 ID → 排隊資料，依到達順序
+    private final Map<String, Ticket> queue = new LinkedHashMap<>();
+    private ScheduledFuture<?> deadlineCheck;
+    private volatile int depth;
+
+    MatchmakingService(Executor workers, ScheduledExecutorService timer, ServerMetrics metrics,
+            long maxWaitMillis, MatchStarter starter) {
+        this.mailbox = new SerialExecutor(workers);
+        this.timer = timer;
+        this.starter = starter;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.enqueued = metrics.counter("match.enqueued");
+        this.cancelled = metrics.counter("match.cancelled");
+        this.matchedPlayers = metrics.counter("match.players");
+        this.matches = metrics.counter("match.formed");
+        this.failed = metrics.counter("match.failed");
+        this.timeToMatch = metrics.histogram("match.timeToMatch");
+        metrics.gauge("match.queueDepth", () -> depth);
+    }
+
+    // 只影響之後的等待預算檢查
+    void setMaxWaitMillis(long millis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private void execute(Runnable task) {
+        mailbox.execute(() -> SendBatch.run(task));
+    }
+
+    // 重複排隊不會改變原本的順位
+    void enqueue(ClientHandler h) {
+        long requested = System.nanoTime();
+        execute(() -> {
+            String id = h.getPlayerId();
+            if (!queue.containsKey(id)) {
+                queue.put(id, new Ticket(h, requested, System.nanoTime()));
+                enqueued.increment();
+            }
+            h.sendMessage("MATCH_QUEUED|" + queue.size());
+            formMatches();
+        });
+    }
+
+    // notify 為 false 時不回覆 (斷線或改走一般開房/加入時)
+    void cancel(ClientHandler h, boolean notify) {
+        // 先取得 ID：被取代的連線在排入信箱後會清除身分
+        String id = h.getPlayerId();
+        execute(() -> {
+            Ticket t = queue.get(id);
+            if (t != null && t.handler == h) {
+                queue.remove(id);
+                cancelled.increment();
+                depth = queue.size();
+            }
+            if (notify) h.sendMessage("MATCH_CANCELLED");
+        });
+    }
+
+    private void formMatches() {
+        long now = System.nanoTime();
+        while (queue.size() >= MAX_PLAYERS) {
+            startMatch(MAX_PLAYERS, now);
+        }
+        if (queue.size() >= MIN_PLAYERS && now - oldestTicket().queuedNanos >= maxWaitNanos) {
+            startMatch(queue.size(), now);
+        }
+        depth = queue.size();
+
+        // 最舊的人只會越等越久，已排定的檢查一定不晚於需要的時間，觸發時再重新排定即可；
+        // 檢查在信箱內清除 deadlineCheck 後才執行 formMatches，不依賴計時器工作是否已標記完成
+        if (queue.size() >= MIN_PLAYERS && deadlineCheck == null) {
+            long delay = oldestTicket().queuedNanos + maxWaitNanos - now;
+            deadlineCheck = timer.schedule(() -> execute(() -> {
+                deadlineCheck = null;
+                formMatches();
+            }), Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Ticket oldestTicket() {
+        return queue.values().iterator().next();
+    }
+
+    private void startMatch(int count, long now) {
+        List<Ticket> tickets = new ArrayList<>(count);
+        Iterator<Ticket> it = queue.values().iterator();
+        while (tickets.size() < count && it.hasNext()) {
+            Ticket t = it.next();
+            it.remove();
+            // 排隊期間已自行進入房間的玩家不列入
+            if (t.handler.getRoom() == null)
+                tickets.add(t);
+        }
+        if (tickets.size() < MIN_PLAYERS) {
+            // 人數不足以成局，放回佇列前端並保留原本的排隊時間，佇列仍依排隊先後排列 (oldestTicket 依賴這點)
+            Map<String, Ticket> rest = new LinkedHashMap<>(queue);
+            queue.clear();
+            for (Ticket t : tickets) {
+                queue.put(t.handler.getPlayerId(), t);
+            }
+            queue.putAll(rest);
+            return;
+        }
+        List<ClientHandler> players = new ArrayList<>(tickets.size());
+        for (Ticket t : tickets) {
+            players.add(t.handler);
+        }
+        if (starter.start(players)) {
+            matches.increment();
+            matchedPlayers.add(players.size());
+            for (Ticket t : tickets) {
+                timeToMatch.record((now - t.requestedNanos) / 1000);
+            }
+        } else {
+            failed.increment();
+            for (ClientHandler h : players) {
+                h.sendMessage("MATCH_FAIL|目前無法建立房間");
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 非阻塞傳輸層：以少量 Selector 事件迴圈服務所有連線，取代每條連線一個執行緒。
+ * <p>
+ * 每條連線以換行字元切分訊息 (與 ClientHandler 的 readLine 相同，編碼也沿用平台預設字元集)，
+ * 並擁有自己的送出佇列 (OutboundQueue)，任何執行緒呼叫 sendMessage 都只是排入佇列並喚醒事件迴圈，
+ * 編碼與寫出都在事件迴圈上成批完成。
+ * 協商為二進位協定 (BinaryCodec) 後改以長度前綴切分框架。
+ */
+public class NioTransport {
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final GameServer server;
+    private final AccountManager accountManager;
+    private final EventLoop[] loops;
+
+    public NioTransport(GameServer server, AccountManager accountManager, int ioThreads) {
+        this.server = server;
+        this.accountManager = accountManager;
+        this.loops = new EventLoop[Math.max(1, ioThreads)];
+    }
+
+    /**
+     * 啟動事件迴圈並在呼叫端執行緒上持續接受新連線 (與 startServer 相同，不會返回)。
+     */
+    public void serve(int port) throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            acceptor.bind(new InetSocketAddress(port));
+            ServerLog.info("致命數字伺服器 (NIO, {} 個 I/O 執行緒) 已啟動，等待連線中...", loops.length);
+
+            int next = 0;
+            while (true) {
+                SocketChannel ch = acceptor.accept();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+
+                EventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+
+                Connection conn = new Connection(ch, loop);
+                server.addHandler(conn);
+                loop.register(conn);
+            }
+        }
+    }
+
+    /**
+     * 單一 Selector 事件迴圈，負責一組連線的讀取、切行與寫出。
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(Connection conn) {
+            pendingRegistrations.add(conn);
+            selector.wakeup();
+        }
+
+        void requestFlush(Connection conn) {
+            pendingFlushes.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    drainRegistrations();
+                    drainFlushes();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            conn.close();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                conn.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            failConnection(conn, e);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 最後一道防線 (例如斷線清理本身失敗)：記錄後繼續服務其他連線
+                    ServerLog.error("事件迴圈錯誤", e);
+                }
+            }
+        }
+
+        private void drainRegistrations() {
+            Connection conn;
+            while ((conn = pendingRegistrations.poll()) != null) {
+                try {
+                    conn.key = conn.channel.register(selector, SelectionKey.OP_READ, conn);
+                    conn.flush();
+                } catch (ClosedChannelException e) {
+                    conn.close();
+                }
+            }
+        }
+
+        private void drainFlushes() {
+            Connection conn;
+            while ((conn = pendingFlushes.poll()) != null) {
+                try {
+                    conn.flush();
+                } catch (RuntimeException e) {
+                    failConnection(conn, e);
+                }
+            }
+        }
+
+        // 指令處理的例外只中斷造成它的連線，事件迴圈與同一迴圈上的其他連線照常運作
+        private void failConnection(Connection conn, RuntimeException e) {
+            ServerLog.error("處理玩家 {} 的連線時發生例外，中斷該連線",
+                    conn.getPlayerId() != null ? conn.getPlayerId() : "未登入用戶", e);
+            conn.close();
+        }
+    }
+
+    /**
+     * 一條非阻塞連線。對遊戲邏輯而言它就是一個 ClientHandler。
+     */
+    private final class Connection extends ClientHandler {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        // 文字模式時累積未完成的一行，二進位模式時累積未完成的框架
+        private byte[] inBuffer = new byte[256];
+        private int inLength = 0;
+        private volatile boolean closed = false;
+        // 送出佇列溢出時由其他執行緒設定，實際關閉交給事件迴圈
+        private volatile boolean aborted = false;
+        // 以下只在事件迴圈執行緒上使用：從送出佇列取出的一批訊息各自編碼後以一次 gathering write 寫出
+        private final List<String> batch = new ArrayList<>();
+        private ByteBuffer[] pending = new ByteBuffer[16];
+        private int pendingOffset = 0; // 第一個尚未寫完的緩衝區
+        private int pendingCount = 0;
+        private BinaryCodec.Encoder encoder;
+        private BinaryCodec.Decoder decoder;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            super(server, accountManager);
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        @Override
+        protected void scheduleFlush() {
+            loop.requestFlush(this);
+        }
+
+        @Override
+        protected void abortConnection() {
+            aborted = true;
+            loop.requestFlush(this);
+        }
+
+        // 解碼器立即切換 (之後讀到的都是框架)；編碼器等事件迴圈寫完握手回覆後才切換
+        @Override
+        protected void switchToBinary(String reply) {
+            decoder = new BinaryCodec.Decoder();
+            super.switchToBinary(reply);
+        }
+
+        // 只在事件迴圈執行緒上呼叫
+        void onReadable(ByteBuffer buf) {
+            int n;
+            try {
+                buf.clear();
+                n = channel.read(buf);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                ServerLog.info("玩家 {} 斷開連線。", getPlayerId() != null ? getPlayerId() : "未登入用戶");
+                close();
+                return;
+            }
+
+            buf.flip();
+            while (buf.hasRemaining() && decoder == null) {
+                byte b = buf.get();
+                if (b == '\n') {
+                    int len = inLength;
+                    if (len > 0 && inBuffer[len - 1] == '\r') len--;
+                    String line = new String(inBuffer, 0, len, CHARSET);
+                    inLength = 0;
+                    dispatch(line);
+                    if (closed) return;
+                } else {
+                    if (inLength == MAX_LINE_LENGTH) {
+                        ServerLog.warn("連線訊息過長，強制中斷。");
+                        close();
+                        return;
+                    }
+                    ensureInCapacity(1);
+                    inBuffer[inLength++] = b;
+                }
+            }
+
+            // 握手後剩餘的位元組都屬於二進位框架
+            if (decoder != null && buf.hasRemaining()) {
+                readFrames(buf);
+            }
+        }
+
+        private void readFrames(ByteBuffer buf) {
+            int count = buf.remaining();
+            ensureInCapacity(count);
+            buf.get(inBuffer, inLength, count);
+            inLength += count;
+
+            int pos = 0;
+            try {
+                int[] header;
+                while ((header = BinaryCodec.peekFrameLength(inBuffer, pos, inLength - pos)) != null) {
+                    int frameEnd = pos + header[1] + header[0];
+                    if (frameEnd > inLength) break;
+                    String message = decoder.decode(inBuffer, pos + header[1], header[0]);
+                    pos = frameEnd;
+                    dispatch(message);
+                    if (closed) return;
+                }
+            } catch (IOException e) {
+                ServerLog.warn("二進位框架格式錯誤，強制中斷: {}", e.getMessage());
+                close();
+                return;
+            }
+            // 把未完成的框架搬到緩衝區開頭
+            System.arraycopy(inBuffer, pos, inBuffer, 0, inLength - pos);
+            inLength -= pos;
+        }
+
+        private void ensureInCapacity(int extra) {
+            if (inLength + extra > inBuffer.length) {
+                inBuffer = Arrays.copyOf(inBuffer, Math.max(inBuffer.length * 2, inLength + extra));
+            }
+        }
+
+        // 只在事件迴圈執行緒上呼叫：一次取走整批訊息合併寫出，寫不完則登記 OP_WRITE 等待下次可寫
+        void flush() {
+            if (aborted) {
+                close();
+                return;
+            }
+            // 尚未註冊完成時先保留佇列，註冊後會立即補寫
+            if (closed || key == null) return;
+            try {
+                while (true) {
+                    if (pendingOffset < pendingCount) {
+                        channel.write(pending, pendingOffset, pendingCount - pendingOffset);
+                        while (pendingOffset < pendingCount && !pending[pendingOffset].hasRemaining()) {
+                            pending[pendingOffset++] = null;
+                        }
+                        if (pendingOffset < pendingCount) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    if (!getOutbound().drainTo(batch)) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    encodeBatch();
+                    if (pendingCount > 0) getServer().recordFlush(pendingCount);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        // 每則訊息編碼成獨立的緩衝區，不再複製合併
+        private void encodeBatch() {
+            pendingOffset = 0;
+            pendingCount = 0;
+            if (pending.length < batch.size()) {
+                pending = new ByteBuffer[Math.max(pending.length * 2, batch.size())];
+            }
+            for (String message : batch) {
+                if (message == OutboundQueue.SWITCH_TO_BINARY) {
+                    encoder = new BinaryCodec.Encoder();
+                    continue;
+                }
+                byte[] bytes = encoder != null ? encoder.encode(message) : (message + "\n").getBytes(CHARSET);
+                pending[pendingCount++] = ByteBuffer.wrap(bytes);
+            }
+            batch.clear();
+        }
+
+        @Override
+        protected String getRemoteAddress() {
+            try {
+                SocketAddress remote = channel.getRemoteAddress();
+                return remote instanceof InetSocketAddress
+                        ? ((InetSocketAddress) remote).getAddress().getHostAddress() : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected boolean isLoopback() {
+            try {
+                SocketAddress remote = channel.getRemoteAddress();
+                return remote instanceof InetSocketAddress
+                        && ((InetSocketAddress) remote).getAddress().isLoopbackAddress();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            Arrays.fill(pending, null);
+            pendingOffset = pendingCount = 0;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ServerLog.error("關閉連線失敗", e);
+            }
+            onDisconnect();
+        }
+    }
+}
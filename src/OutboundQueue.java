@@ -0,0 +1,139 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 單一連線的有界送出佇列：任何執行緒都只排入訊息並立即返回，實際寫出由一個寫出工作
+ * (阻塞模式為共用寫出執行緒池，非阻塞模式為事件迴圈) 一次取走整批、只 flush 一次。
+ * <p>
+ * 佇列滿時依慢速客戶端策略處理：
+ * <ul>
+ * <li>DROP_STALE：丟棄佇列中尚未送出的 UPDATE / DELTA (之後會收到完整快照)，其他訊息保留；
+ * 丟完仍然放不下才回報溢出</li>
+ * <li>DISCONNECT：直接回報溢出，由呼叫端中斷連線</li>
+ * </ul>
+ */
+class OutboundQueue {
+    public enum Policy { DROP_STALE, DISCONNECT }
+
+    // offer 的回傳旗標，可同時成立
+    static final int SCHEDULE = 1;  // 呼叫端要安排一次寫出工作
+    static final int RESYNC = 2;    // 有遊戲狀態被丟棄，下一次廣播要送完整快照
+    static final int OVERFLOW = 4;  // 放不下，呼叫端應中斷連線
+
+    // 協定切換標記：寫出工作讀到它之後改用二進位編碼 (以參照比對，不會與一般訊息混淆)
+    static final String SWITCH_TO_BINARY = new String("<switch-to-binary>");
+
+    private final int capacity;
+    private final Policy policy;
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean scheduled = false;
+    private boolean closed = false;
+    private final LongAdder droppedStates; // 全伺服器共用的丟棄計數
+
+    OutboundQueue(int capacity, Policy policy, LongAdder droppedStates) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.droppedStates = droppedStates;
+    }
+
+    int offer(String message) {
+        lock.lock();
+        try {
+            if (closed) return 0;
+            int flags = 0;
+            if (queue.size() >= capacity) {
+                if (policy == Policy.DISCONNECT) return OVERFLOW;
+
+                int dropped = dropQueuedStates();
+                // 新的完整快照本身就能讓客戶端重新同步；差異則依賴舊狀態，一併丟棄
+                boolean isState = isStateMessage(message);
+                if (message.startsWith("DELTA|")) {
+                    droppedStates.increment();
+                    return RESYNC;
+                }
+                if (dropped > 0 && !isState) flags |= RESYNC;
+                if (queue.size() >= capacity) return flags | OVERFLOW;
+            }
+            queue.add(message);
+            if (!scheduled) {
+                scheduled = true;
+                flags |= SCHEDULE;
+            }
+            return flags;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 握手回覆與切換標記一起排入，中間不會插入其他執行緒的訊息 (不受容量限制)
+    int offerBinarySwitch(String reply) {
+        lock.lock();
+        try {
+            if (closed) return 0;
+            queue.add(reply);
+            queue.add(SWITCH_TO_BINARY);
+            if (scheduled) return 0;
+            scheduled = true;
+            return SCHEDULE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 取走目前所有訊息；佇列已空時清除排程旗標並回傳 false，寫出工作就此結束
+    boolean drainTo(List<String> out) {
+        lock.lock();
+        try {
+            if (queue.isEmpty() || closed) {
+                scheduled = false;
+                return false;
+            }
+            out.addAll(queue);
+            queue.clear();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 連線結束後不再接受訊息，並釋放尚未送出的內容
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int dropQueuedStates() {
+        int dropped = 0;
+        Iterator<String> it = queue.iterator();
+        while (it.hasNext()) {
+            if (isStateMessage(it.next())) {
+                it.remove();
+                dropped++;
+            }
+        }
+        droppedStates.add(dropped);
+        return dropped;
+    }
+
+    private static boolean isStateMessage(String message) {
+        return message.startsWith("UPDATE|") || message.startsWith("DELTA|");
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * 加鹽的密碼雜湊 (PBKDF2-HMAC-SHA512)。儲存格式為 {@code pbkdf2-sha512$迭代次數$鹽$雜湊} (Base64)，
+ * 不含帳號檔使用的 ':' 與協定的 '|'。
+ * <p>
+ * 沒有前綴的舊資料視為明文密碼，仍可驗證；{@link #needsRehash} 讓登入成功後改存成雜湊 (迭代次數調整後也會重算)。
+ * 每次雜湊都刻意耗費 CPU，呼叫端應在專用的執行緒上執行 (見 {@link AuthService})。
+ */
+class PasswordHasher {
+    static final int DEFAULT_ITERATIONS = 210_000;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final String PREFIX = "pbkdf2-sha512$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final SecureRandom random = new SecureRandom();
+    private volatile int iterations;
+    // 帳號不存在時拿來比對的雜湊，讓回應時間與密碼錯誤相同，無法藉此探測帳號是否存在
+    private volatile String dummy;
+
+    PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    // 只影響之後的雜湊；既有帳號在下次登入時改用新的次數
+    void setIterations(int iterations) {
+        this.iterations = iterations;
+        this.dummy = null;
+    }
+
+    String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int n = iterations;
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + n + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(derive(password, salt, n));
+    }
+
+    /**
+     * 比對密碼與儲存的 credential；stored 為 null (帳號不存在) 時仍做一次完整的雜湊後回傳 false。
+     */
+    boolean verify(String password, String stored) {
+        if (stored == null) {
+            String d = dummy;
+            if (d == null)
+                dummy = d = hash("");
+            verify(password, d);
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            // 舊資料：明文密碼
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3)
+            return false;
+        try {
+            int n = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(expected, derive(password, salt, n));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // 明文或迭代次數與目前設定不同
+    boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    private static byte[] derive(String password, byte[] salt, int n) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, n, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JDK 不支援 " + ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * 以 '|' 分隔的協定訊息，只掃描一次並記錄各欄位的位置，不建立子字串陣列。
+ * <p>
+ * GameServer.processCommand 解析一次後，同一個物件會直接交給 CommandFactory，
+ * 欄位比對與數字解析都在原字串上進行，只有真的需要字串時 (例如玩家 ID) 才呼叫 field()。
+ */
+public final class ProtocolMessage {
+    private static final int MAX_FIELDS = 16;
+
+    private final String raw;
+    // ends[i] 為第 i 個欄位結束的位置 (不含)，第 i 個欄位從 ends[i-1] + 1 開始
+    private final int[] ends = new int[MAX_FIELDS];
+    private int count;
+
+    private ProtocolMessage(String raw) {
+        this.raw = raw;
+        int len = raw.length();
+        for (int i = 0; i < len && count < MAX_FIELDS - 1; i++) {
+            if (raw.charAt(i) == '|') {
+                ends[count++] = i;
+            }
+        }
+        // 超過上限的欄位併入最後一欄
+        ends[count++] = len;
+    }
+
+    public static ProtocolMessage parse(String raw) {
+        return new ProtocolMessage(raw);
+    }
+
+    public String raw() {
+        return raw;
+    }
+
+    public int fieldCount() {
+        return count;
+    }
+
+    public boolean isType(String type) {
+        return fieldEquals(0, type);
+    }
+
+    public boolean fieldEquals(int i, String value) {
+        if (i >= count)
+            return false;
+        int start = start(i);
+        return ends[i] - start == value.length() && raw.regionMatches(start, value, 0, value.length());
+    }
+
+    // 欄位不存在時與原本的 split 一樣丟出 ArrayIndexOutOfBoundsException
+    public String field(int i) {
+        checkIndex(i);
+        return raw.substring(start(i), ends[i]);
+    }
+
+    public int intField(int i) {
+        checkIndex(i);
+        return Integer.parseInt(raw, start(i), ends[i], 10);
+    }
+
+    private int start(int i) {
+        return i == 0 ? 0 : ends[i - 1] + 1;
+    }
+
+    private void checkIndex(int i) {
+        if (i >= count)
+            throw new ArrayIndexOutOfBoundsException(i);
+    }
+
+    @Override
+    public String toString() {
+        return raw;
+    }
+}
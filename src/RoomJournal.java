@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * 房間事件的追加式日誌，供伺服器當機後重建房間。
+ * <p>
+ * 遊戲執行緒只把一行紀錄放進佇列就返回；背景執行緒 (journal-writer) 一次取走整批、
+ * 以 FileChannel 寫入並 force 一次 (group commit)，每步操作不需等待磁碟。
+ * 紀錄為一行一筆、以 '|' 分隔欄位：
+ * <ul>
+ * <li>{@code CREATE|房號|名稱}、{@code CLOSE|房號}</li>
+ * <li>{@code JOIN|房號|玩家}、{@code LEAVE|房號|玩家}、{@code READY|房號|玩家|1/0}</li>
+ * <li>{@code SNAP|房號|GameState.toJournal()}：開局、每 {@link #SNAPSHOT_INTERVAL} 步與檢查點時寫入</li>
+ * <li>{@code MOVE|房號|玩家|CALL|n} (或 PASS、RETURN)：已執行的指令，重播時依序套用在最近的 SNAP 上</li>
+ * <li>{@code ELIM|房號|玩家|陷阱|輪數}：出局 (只供查閱，重播由 MOVE 重現)</li>
+ * <li>{@code END|房號} (分出勝負)、{@code RESTART|房號} (退回等待室並取消所有準備)</li>
+ * <li>{@code ROOM|房號|名稱|玩家:1/0,...}：檢查點時的房間完整成員，取代之前的所有紀錄</li>
+ * </ul>
+ * 檔案依序分段 (journal-0000000001.log ...)，超過大小上限就換新檔並要求所有房間寫一次檢查點；
+ * 檢查點完成後刪除再前一段以前的舊檔 (多保留一段，涵蓋檢查點開始時仍在建立中的房間)。
+ */
+class RoomJournal {
+    static final int SNAPSHOT_INTERVAL = 32;
+    private static final int BATCH_SIZE = 4096;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final LongAdder records;
+    private final LongAdder commits;
+    private final LongAdder bytes;
+    private final LatencyHistogram commitLatency;
+    private volatile boolean enabled = false;
+    private long segmentBytes = 16L * 1024 * 1024;
+    // 以下只在 journal-writer 執行緒上使用
+    private Path dir;
+    private IntConsumer checkpointRequest;
+    private FileChannel channel;
+    private int segment;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    RoomJournal(ServerMetrics metrics) {
+        this.records = metrics.counter("journal.records");
+        this.commits = metrics.counter("journal.commits");
+        this.bytes = metrics.counter("journal.bytes");
+        this.commitLatency = metrics.histogram("journal.commit");
+        metrics.gauge("journal.backlog", queue::size);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * 開始寫入新的一段日誌 (編號接在目錄中現有的之後)。
+     * checkpointRequest 在每次換段時以新段號呼叫，呼叫端替所有房間寫完檢查點後呼叫 {@link #checkpointDone}。
+     */
+    void open(Path dir, IntConsumer checkpointRequest) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.checkpointRequest = checkpointRequest;
+        List<Integer> existing = listSegments(dir);
+        segment = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+        openNextSegment();
+        enabled = true;
+
+        Thread writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drainAndForce, "journal-flush"));
+        // 開啟時立即寫一次檢查點，之前的段落 (例如剛重播完的) 就能刪除
+        checkpointRequest.accept(segment);
+    }
+
+    // 不重播時舊日誌已無意義，開啟前先刪除
+    static void deleteSegments(Path dir) throws IOException {
+        for (int n : listSegments(dir)) {
+            Files.deleteIfExists(segmentPath(dir, n));
+        }
+    }
+
+    // --- 紀錄 (未啟用時直接返回，不組字串) ---
+
+    void roomCreated(String roomId, String name) {
+        if (enabled) append("CREATE|" + roomId + "|" + name);
+    }
+
+    void roomClosed(String roomId) {
+        if (enabled) append("CLOSE|" + roomId);
+    }
+
+    void seatTaken(String roomId, String playerId) {
+        if (enabled) append("JOIN|" + roomId + "|" + playerId);
+    }
+
+    void seatReleased(String roomId, String playerId) {
+        if (enabled) append("LEAVE|" + roomId + "|" + playerId);
+    }
+
+    void ready(String roomId, String playerId, boolean ready) {
+        if (enabled) append("READY|" + roomId + "|" + playerId + "|" + (ready ? 1 : 0));
+    }
+
+    void snapshot(String roomId, GameState state) {
+        if (enabled) append("SNAP|" + roomId + "|" + state.toJournal());
+    }
+
+    // action 為 ACTION|玩家|類型|數字，去掉開頭的 ACTION 後記錄
+    void move(String roomId, ProtocolMessage action) {
+        if (enabled) append("MOVE|" + roomId + action.raw().substring("ACTION".length()));
+    }
+
+    void eliminated(String roomId, String playerId, int trap, int round) {
+        if (enabled) append("ELIM|" + roomId + "|" + playerId + "|" + trap + "|" + round);
+    }
+
+    void gameEnded(String roomId) {
+        if (enabled) append("END|" + roomId);
+    }
+
+    void restarted(String roomId) {
+        if (enabled) append("RESTART|" + roomId);
+    }
+
+    // seats 依座位順序：玩家 → 是否已準備
+    void roomCheckpoint(String roomId, String name, Map<String, Boolean> seats) {
+        if (!enabled) return;
+        StringBuilder sb = new StringBuilder("ROOM|").append(roomId).append('|').append(name).append('|');
+        boolean first = true;
+        for (Map.Entry<String, Boolean> e : seats.entrySet()) {
+            if (!first) sb.append(',');
+            sb.append(e.getKey()).append(':').append(e.getValue() ? 1 : 0);
+            first = false;
+        }
+        append(sb.toString());
+    }
+
+    // 該段的檢查點已全部排入佇列；寫出此標記後即可刪除舊段
+    void checkpointDone(int checkpointSegment) {
+        if (enabled) append("CKPT|" + checkpointSegment);
+    }
+
+    private void append(String record) {
+        queue.add(record);
+    }
+
+    // --- 寫出 ---
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                String first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                ServerLog.error("寫入房間日誌失敗", e);
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void drainAndForce() {
+        List<String> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        try {
+            writeBatch(batch);
+        } catch (IOException e) {
+            ServerLog.error("寫入房間日誌失敗", e);
+        }
+    }
+
+    private synchronized void writeBatch(List<String> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        long start = System.nanoTime();
+        int completedCheckpoint = -1;
+        buffer.clear();
+        for (String record : batch) {
+            byte[] line = (record + "\n").getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < line.length) {
+                flushBuffer();
+                if (buffer.capacity() < line.length) buffer = ByteBuffer.allocateDirect(line.length * 2);
+            }
+            buffer.put(line);
+            if (record.startsWith("CKPT|")) completedCheckpoint = Integer.parseInt(record.substring(5));
+        }
+        flushBuffer();
+        channel.force(false);
+        records.add(batch.size());
+        commits.increment();
+        commitLatency.record((System.nanoTime() - start) / 1000);
+
+        if (completedCheckpoint > 0) deleteBefore(completedCheckpoint - 1);
+        if (channel.size() >= segmentBytes) {
+            openNextSegment();
+            checkpointRequest.accept(segment);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        bytes.add(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void openNextSegment() throws IOException {
+        if (channel != null) channel.close();
+        segment++;
+        channel = FileChannel.open(segmentPath(dir, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        ServerLog.info("房間日誌寫入新段落: {}", segmentPath(dir, segment).getFileName());
+    }
+
+    private void deleteBefore(int keepFrom) throws IOException {
+        for (int n : listSegments(dir)) {
+            if (n < keepFrom) Files.deleteIfExists(segmentPath(dir, n));
+        }
+    }
+
+    private static Path segmentPath(Path dir, int n) {
+        return dir.resolve(String.format("%s%010d%s", PREFIX, n, SUFFIX));
+    }
+
+    private static List<Integer> listSegments(Path dir) throws IOException {
+        List<Integer> result = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return result;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                try {
+                    result.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // 不是日誌段落
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    // --- 重播 ---
+
+    /**
+     * 重播後的房間：座位依加入順序，state 為 null 表示在等待室。
+     */
+    static final class RecoveredRoom {
+        final String id;
+        final String name;
+        final Map<String, Boolean> seats = new LinkedHashMap<>();
+        GameState state;
+
+        RecoveredRoom(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * 依序重播目錄中所有段落，回傳仍然存在的房間。
+     * 當機時寫到一半的最後一行 (或任何無法解析的紀錄) 會被略過。
+     */
+    static List<RecoveredRoom> replay(Path dir, CommandFactory factory) throws IOException {
+        Map<String, RecoveredRoom> rooms = new LinkedHashMap<>();
+        int applied = 0;
+        int skipped = 0;
+        for (int n : listSegments(dir)) {
+            try (BufferedReader reader = Files.newBufferedReader(segmentPath(dir, n), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        apply(rooms, line.split("\\|", -1), factory);
+                        applied++;
+                    } catch (RuntimeException e) {
+                        skipped++;
+                    }
+                }
+            }
+        }
+        rooms.values().removeIf(r -> r.seats.isEmpty());
+        ServerLog.info("房間日誌重播完成: {} 筆紀錄，略過 {} 筆", applied, skipped);
+        return new ArrayList<>(rooms.values());
+    }
+
+    private static void apply(Map<String, RecoveredRoom> rooms, String[] f, CommandFactory factory) {
+        RecoveredRoom room = rooms.get(f[1]);
+        switch (f[0]) {
+            case "CREATE":
+                rooms.put(f[1], new RecoveredRoom(f[1], f[2]));
+                break;
+            case "ROOM":
+                RecoveredRoom r = new RecoveredRoom(f[1], f[2]);
+                if (!f[3].isEmpty()) {
+                    for (String seat : f[3].split(",")) {
+                        int colon = seat.lastIndexOf(':');
+                        r.seats.put(seat.substring(0, colon), seat.endsWith(":1"));
+                    }
+                }
+                rooms.put(f[1], r);
+                break;
+            case "CLOSE":
+                rooms.remove(f[1]);
+                break;
+            case "JOIN":
+                room.seats.put(f[2], false);
+                break;
+            case "LEAVE":
+                room.seats.remove(f[2]);
+                break;
+            case "READY":
+                room.seats.replace(f[2], f[3].equals("1"));
+                break;
+            case "SNAP":
+                room.state = GameState.fromJournal(f[2]);
+                break;
+            case "MOVE":
+                if (room.state != null) {
+                    GameCommand cmd = factory.createCommand(
+                            ProtocolMessage.parse("ACTION|" + f[2] + "|" + f[3] + "|" + (f.length > 4 ? f[4] : "")),
+                            room.state);
+                    if (cmd != null) cmd.execute(room.state);
+                }
+                break;
+            case "END":
+                room.state = null;
+                break;
+            case "RESTART":
+                room.state = null;
+                room.seats.replaceAll((p, ready) -> false);
+                break;
+            default:
+                // ELIM、CKPT 只供查閱
+                break;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 房間登錄表：配置房號、限制房間總數，並依房間狀態 (等待中、已滿、遊戲中) 維護次要索引，
+ * 大廳查詢與配對可以直接取某個狀態的房間，不必掃描全部房間。
+ * <p>
+ * 房號由遞增計數器配置，不重複使用 (舊的 JOIN 請求不會誤入之後建立的新房間)，
+ * 至少三位數、超過 999 後自動加長。建立、查詢、移除都不持有全域鎖；
+ * 狀態索引的搬移由房間在自己的 seatLock 內呼叫 {@link #move}，同一房間的更新不會交錯。
+ */
+class RoomRegistry {
+    enum State { WAITING, FULL, PLAYING }
+
+    private volatile int capacity;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final Map<String, GameServer.GameRoom> byId = new ConcurrentHashMap<>();
+    private final Map<State, Set<GameServer.GameRoom>> byState = new EnumMap<>(State.class);
+
+    RoomRegistry(int capacity) {
+        this.capacity = capacity;
+        for (State s : State.values()) {
+            byState.put(s, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * 配置新房號並以 factory 建立房間；房間數已達上限時回傳 null。
+     */
+    GameServer.GameRoom create(Function<String, GameServer.GameRoom> factory) {
+        if (reserved.incrementAndGet() > capacity) {
+            reserved.decrementAndGet();
+            return null;
+        }
+        String id = String.format("%03d", nextId.incrementAndGet());
+        GameServer.GameRoom room = factory.apply(id);
+        byId.put(id, room);
+        // 登錄前 factory 內的狀態變化不會寫入索引，這裡補一次
+        room.refreshIndex();
+        return room;
+    }
+
+    /**
+     * 以指定房號重建房間 (當機復原用)，之後配置的房號會接在最大的房號之後。
+     * 房號已存在或已達上限時回傳 null。
+     */
+    GameServer.GameRoom restore(String id, Function<String, GameServer.GameRoom> factory) {
+        if (byId.containsKey(id))
+            return null;
+        if (reserved.incrementAndGet() > capacity) {
+            reserved.decrementAndGet();
+            return null;
+        }
+        try {
+            long n = Long.parseLong(id);
+            nextId.accumulateAndGet(n, Math::max);
+        } catch (NumberFormatException ignored) {
+            // 非數字房號不影響之後的配置
+        }
+        GameServer.GameRoom room = factory.apply(id);
+        byId.put(id, room);
+        room.refreshIndex();
+        return room;
+    }
+
+    GameServer.GameRoom get(String id) {
+        return byId.get(id);
+    }
+
+    // 只移除仍登錄為同一個實例的房間，回傳是否真的移除
+    boolean remove(GameServer.GameRoom room) {
+        if (!byId.remove(room.getRoomId(), room))
+            return false;
+        for (Set<GameServer.GameRoom> index : byState.values()) {
+            index.remove(room);
+        }
+        reserved.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * 由房間在 seatLock 內呼叫；to 為 null 表示房間已關閉。
+     * 尚未登錄的房間 (建立中，或基準測試直接建立的) 不列入索引並回傳 false，登錄後由 {@link #create} 補上。
+     */
+    boolean move(GameServer.GameRoom room, State from, State to) {
+        if (to != null) {
+            if (byId.get(room.getRoomId()) != room)
+                return false;
+            byState.get(to).add(room);
+        }
+        if (from != null) {
+            byState.get(from).remove(room);
+        }
+        return true;
+    }
+
+    Collection<GameServer.GameRoom> all() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    // 指定狀態的房間 (即時檢視，迭代時可能看到之後才發生的變化)
+    Set<GameServer.GameRoom> inState(State state) {
+        return Collections.unmodifiableSet(byState.get(state));
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    int count(State state) {
+        return byState.get(state).size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    // 只影響之後的建立；已存在的房間不受影響
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+}
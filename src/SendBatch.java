@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 送出批次：處理一則指令 (或一個房間任務) 期間，各連線的 sendMessage 只排入送出佇列，
+ * 等整段處理結束才對每個收件者安排一次寫出，讓同一個收件者的多則訊息合併成一次 flush。
+ * <p>
+ * 以執行緒區域變數記錄目前的批次；巢狀呼叫沿用外層批次。每條執行緒重複使用同一個實例，不額外配置。
+ */
+final class SendBatch {
+    private static final ThreadLocal<SendBatch> CURRENT = ThreadLocal.withInitial(SendBatch::new);
+
+    private final List<ClientHandler> pending = new ArrayList<>();
+    private boolean active = false;
+
+    private SendBatch() {
+    }
+
+    static void run(Runnable task) {
+        SendBatch batch = CURRENT.get();
+        if (batch.active) {
+            task.run();
+            return;
+        }
+        batch.active = true;
+        try {
+            task.run();
+        } finally {
+            batch.active = false;
+            batch.flush();
+        }
+    }
+
+    // 目前在批次中則記下收件者並回傳 true，由批次結束時統一安排寫出
+    static boolean defer(ClientHandler handler) {
+        SendBatch batch = CURRENT.get();
+        if (!batch.active) return false;
+        batch.pending.add(handler);
+        return true;
+    }
+
+    private void flush() {
+        // 送出佇列保證同一連線在寫出前只回報一次 SCHEDULE，這裡不會重複
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i).scheduleFlush();
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 單一房間的信箱 (mailbox)：任務依送入順序一次只執行一個，
+ * 但實際執行緒借自共用的工作執行緒池，因此不同房間可以同時在不同核心上處理。
+ */
+public class SerialExecutor implements Executor {
+    // 每次佔用工作執行緒最多處理的任務數，超過就讓出給其他房間
+    private static final int BATCH_LIMIT = 64;
+
+    private final Executor workers;
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    public SerialExecutor(Executor workers) {
+        this.workers = workers;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mailbox.add(task);
+        // 由 0 變 1 的那一方負責排程，其餘只排入信箱
+        if (pending.getAndIncrement() == 0) {
+            workers.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        boolean idle = false;
+        try {
+            for (int i = 0; i < BATCH_LIMIT && !idle; i++) {
+                Runnable task = mailbox.poll();
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // Error (例如 StackOverflowError) 也只影響這一個任務，房間之後的任務照常執行
+                    ServerLog.error("房間任務執行失敗", t);
+                } finally {
+                    idle = pending.decrementAndGet() == 0;
+                }
+            }
+        } finally {
+            // 批次用完，或記錄失敗時又拋出例外：仍有任務就重新排程，信箱不會就此停擺
+            if (!idle) {
+                workers.execute(this::drain);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 伺服器端的非同步日誌：呼叫端只把「範本 + 參數」放進固定容量的環狀佇列，
+ * 字串組裝與輸出 (System.out) 都由背景執行緒 (log-writer) 成批完成，遊戲執行緒不會卡在主控台 I/O 上。
+ * <p>
+ * 範本以 {@code {}} 標示參數位置，例如 {@code ServerLog.debug("目前是第 {} 輪", roundCount)}；
+ * 等級未開啟時呼叫直接返回，不組字串。佇列滿時捨棄新紀錄並計數，不阻塞呼叫端。
+ * 同一範本每秒最多輸出 {@link #RATE_LIMIT_PER_SECOND} 筆，其餘併成一行「略過 N 筆」。
+ * <p>
+ * 等級由 {@code -Dlog.level=DEBUG|INFO|WARN|ERROR|OFF} 或 GameServer 的 {@code --log-level=} 設定，預設 INFO。
+ */
+public final class ServerLog {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 8192;
+    private static final int BATCH_SIZE = 256;
+    private static final int RATE_LIMIT_PER_SECOND = 100;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static volatile Level level = parseLevel(System.getProperty("log.level", "INFO"));
+    private static final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static final Map<String, RateWindow> windows = new ConcurrentHashMap<>();
+    private static long reportedDropped; // 只在 writeBatch 內讀寫
+
+    static {
+        Thread writer = new Thread(ServerLog::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // 結束前把佇列中剩餘的紀錄寫完
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::drainAndFlush, "log-flush"));
+    }
+
+    private ServerLog() {
+    }
+
+    private static final class Record {
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Level level;
+        final String template;
+        final Object[] args;
+        final long suppressed;
+
+        Record(Level level, String template, Object[] args, long suppressed) {
+            this.level = level;
+            this.template = template;
+            this.args = args;
+            this.suppressed = suppressed;
+        }
+    }
+
+    // 每個範本一個一秒的時間窗；超過上限的紀錄只計數，下一個放行的紀錄附帶略過筆數
+    private static final class RateWindow {
+        final AtomicLong second = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong suppressed = new AtomicLong();
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0 && level != Level.OFF;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    // 因佇列已滿而捨棄的紀錄數
+    public static long droppedCount() {
+        return dropped.sum();
+    }
+
+    // 固定參數個數的多載避免 varargs 在等級關閉時仍配置陣列
+
+    public static void debug(String template) {
+        if (isEnabled(Level.DEBUG)) log(Level.DEBUG, template);
+    }
+
+    public static void debug(String template, Object a) {
+        if (isEnabled(Level.DEBUG)) log(Level.DEBUG, template, a);
+    }
+
+    public static void debug(String template, Object a, Object b) {
+        if (isEnabled(Level.DEBUG)) log(Level.DEBUG, template, a, b);
+    }
+
+    public static void info(String template) {
+        if (isEnabled(Level.INFO)) log(Level.INFO, template);
+    }
+
+    public static void info(String template, Object a) {
+        if (isEnabled(Level.INFO)) log(Level.INFO, template, a);
+    }
+
+    public static void info(String template, Object a, Object b) {
+        if (isEnabled(Level.INFO)) log(Level.INFO, template, a, b);
+    }
+
+    public static void warn(String template) {
+        if (isEnabled(Level.WARN)) log(Level.WARN, template);
+    }
+
+    public static void warn(String template, Object a) {
+        if (isEnabled(Level.WARN)) log(Level.WARN, template, a);
+    }
+
+    public static void warn(String template, Object a, Object b) {
+        if (isEnabled(Level.WARN)) log(Level.WARN, template, a, b);
+    }
+
+    // 最後一個參數若為 Throwable，會在訊息後附上堆疊
+    public static void error(String template, Object... args) {
+        if (isEnabled(Level.ERROR)) log(Level.ERROR, template, args);
+    }
+
+    private static void log(Level l, String template, Object... args) {
+        RateWindow w = windows.computeIfAbsent(template, t -> new RateWindow());
+        long now = System.currentTimeMillis() / 1000;
+        long prev = w.second.get();
+        if (prev != now && w.second.compareAndSet(prev, now)) {
+            w.count.set(0);
+        }
+        if (w.count.incrementAndGet() > RATE_LIMIT_PER_SECOND) {
+            w.suppressed.incrementAndGet();
+            return;
+        }
+        long suppressed = w.suppressed.getAndSet(0);
+        if (!queue.offer(new Record(l, template, args, suppressed))) {
+            dropped.increment();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                Record first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void drainAndFlush() {
+        List<Record> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    // 一批紀錄組成一個字串，只寫入與 flush 一次
+    private static synchronized void writeBatch(List<Record> batch) {
+        StringBuilder sb = new StringBuilder(batch.size() * 80);
+        for (Record r : batch) {
+            format(r, sb);
+            sb.append(System.lineSeparator());
+        }
+        long total = dropped.sum();
+        if (total > reportedDropped) {
+            sb.append("WARN 日誌佇列已滿，捨棄 ").append(total - reportedDropped).append(" 筆紀錄").append(System.lineSeparator());
+            reportedDropped = total;
+        }
+        if (sb.length() > 0) {
+            System.out.print(sb);
+            System.out.flush();
+        }
+    }
+
+    private static void format(Record r, StringBuilder sb) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(r.time), sb);
+        sb.append(' ').append(r.level).append(" [").append(r.thread).append("] ");
+
+        Throwable thrown = null;
+        int argCount = r.args.length;
+        if (argCount > 0 && r.args[argCount - 1] instanceof Throwable) {
+            thrown = (Throwable) r.args[argCount - 1];
+            argCount--;
+        }
+        int argIndex = 0;
+        int start = 0;
+        int mark;
+        while ((mark = r.template.indexOf("{}", start)) >= 0 && argIndex < argCount) {
+            sb.append(r.template, start, mark).append(r.args[argIndex++]);
+            start = mark + 2;
+        }
+        sb.append(r.template, start, r.template.length());
+
+        if (r.suppressed > 0) {
+            sb.append(" (先前略過 ").append(r.suppressed).append(" 筆相同訊息)");
+        }
+        if (thrown != null) {
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            sb.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 伺服器內部指標：計數器、即時量測值 (gauge) 與延遲直方圖，名稱以點分隔 (例如 {@code game.moves})。
+ * <p>
+ * 記錄只涉及 LongAdder / 原子陣列，熱路徑上不取得任何鎖。每個計數器另有每秒速率
+ * ({@code 名稱.perSec})，由 {@link #startRates} 排在共用計時器上每秒取樣一次。
+ * 直方圖以微秒記錄，輸出 count / mean / p50 / p99。
+ */
+public class ServerMetrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // 計數器上一秒的取樣值與換算出的速率，只由計時器執行緒寫入
+    private final Map<String, long[]> rates = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // 以 System.nanoTime() 的起點記錄一筆耗時 (換算為微秒)
+    public void recordSince(LatencyHistogram histogram, long startNanos) {
+        histogram.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void startRates(ScheduledExecutorService timer) {
+        timer.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void sampleRates() {
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            long now = e.getValue().sum();
+            long[] r = rates.computeIfAbsent(e.getKey(), n -> new long[] { now, 0 });
+            r[1] = now - r[0];
+            r[0] = now;
+        }
+    }
+
+    // 依名稱排序的所有指標目前值
+    public Map<String, String> snapshot() {
+        Map<String, String> out = new TreeMap<>();
+        out.put("uptime.seconds", String.valueOf((System.nanoTime() - startNanos) / 1_000_000_000L));
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            out.put(e.getKey(), String.valueOf(e.getValue().sum()));
+            long[] r = rates.get(e.getKey());
+            out.put(e.getKey() + ".perSec", String.valueOf(r != null ? r[1] : 0));
+        }
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            out.put(e.getKey(), String.valueOf(e.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            if (h.count() == 0) continue;
+            out.put(e.getKey() + ".count", String.valueOf(h.count()));
+            out.put(e.getKey() + ".meanUs", String.format("%.1f", h.mean()));
+            out.put(e.getKey() + ".p50Us", String.valueOf(h.percentile(50)));
+            out.put(e.getKey() + ".p99Us", String.valueOf(h.percentile(99)));
+        }
+        return out;
+    }
+
+    // 協定格式：STATS_RESULT|名稱=值;名稱=值;...
+    public String toProtocolMessage() {
+        StringBuilder sb = new StringBuilder("STATS_RESULT|");
+        for (Map.Entry<String, String> e : snapshot().entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append(';');
+        }
+        return sb.toString();
+    }
+
+    // 純文字格式：每行「名稱 值」
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : snapshot().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 只綁定在本機迴路位址的 HTTP 端點：GET /stats 回傳 {@link #toText()}。
+     */
+    public HttpServer startHttp(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/stats", exchange -> {
+            byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.start();
+        return http;
+    }
+}
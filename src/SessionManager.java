@@ -0,0 +1,187 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.BiPredicate;
+
+/**
+ * 登入工作階段：登入成功時發給連線一個隨機權杖 ({@code LOGIN_SUCCESS|帳號|權杖})。
+ * 連線中斷後權杖在寬限期內仍然有效，座位由 DetachedSeat 保留；客戶端重新連線後送出
+ * {@code RESUME|權杖} 即可接回原本的身分與座位，不必再驗證密碼。寬限期結束仍未接回時呼叫 onExpire 釋放座位。
+ * <p>
+ * 每位玩家同時只有一個有效權杖，重新以密碼登入或 RESUME 成功都會換發新權杖，舊權杖立即失效。
+ * 伺服器尚未察覺舊連線中斷時也可以 RESUME，由新連線取代舊連線。
+ */
+class SessionManager {
+    enum Release {
+        // 沒有工作階段或不保留座位：照常立即清理
+        NONE,
+        // 進入寬限期，座位改由 DetachedSeat 保留
+        HELD,
+        // 已由 RESUME 的新連線接手，舊連線不做任何清理
+        SUPERSEDED
+    }
+
+    /** RESUME 的結果；previous 為被取代的舊連線 (已在寬限期中則為 null)。 */
+    static final class Resumed {
+        final String playerId;
+        final String token;
+        final ClientHandler previous;
+
+        Resumed(String playerId, String token, ClientHandler previous) {
+            this.playerId = playerId;
+            this.token = token;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Session {
+        final String playerId;
+        final String token;
+        // 目前持有的連線；null 表示連線已中斷、正在寬限期中
+        ClientHandler handler;
+        ScheduledFuture<?> expiry;
+
+        Session(String playerId, String token, ClientHandler handler) {
+            this.playerId = playerId;
+            this.token = token;
+            this.handler = handler;
+        }
+    }
+
+    private static final int TOKEN_BYTES = 18;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService timer;
+    private final Consumer<String> onExpire;
+    private volatile long graceMillis;
+    private final LongAdder issued;
+    private final LongAdder resumed;
+    private final LongAdder resumeFailed;
+    private final LongAdder expired;
+    // 以下受 this 保護
+    private final Map<String, Session> byToken = new HashMap<>();
+    private final Map<String, Session> byPlayer = new HashMap<>();
+    private int held;
+
+    SessionManager(ScheduledExecutorService timer, ServerMetrics metrics, long graceMillis, Consumer<String> onExpire) {
+        this.timer = timer;
+        this.onExpire = onExpire;
+        this.graceMillis = graceMillis;
+        this.issued = metrics.counter("session.issued");
+        this.resumed = metrics.counter("session.resumed");
+        this.resumeFailed = metrics.counter("session.resumeFailed");
+        this.expired = metrics.counter("session.expired");
+        metrics.gauge("session.held", this::heldCount);
+    }
+
+    // 0 表示斷線後不保留座位；只影響之後的斷線
+    void setGraceMillis(long millis) {
+        this.graceMillis = millis;
+    }
+
+    private synchronized int heldCount() {
+        return held;
+    }
+
+    /**
+     * 替剛以密碼登入的連線發出新權杖；同一玩家先前的權杖 (包括寬限期中的) 一併作廢。
+     */
+    synchronized String issue(ClientHandler h) {
+        discard(byPlayer.get(h.getPlayerId()));
+        Session s = register(h.getPlayerId(), h);
+        issued.increment();
+        return s.token;
+    }
+
+    /**
+     * 以權杖接回工作階段並換發新權杖；權杖無效或已過期時回傳 null。
+     * 接回前先以 claim (帳號, 目前持有的舊連線) 把帳號的上線資格移給新連線；舊連線已中斷後有人以密碼登入時失敗。
+     */
+    synchronized Resumed resume(String token, ClientHandler h, BiPredicate<String, ClientHandler> claim) {
+        Session s = token != null ? byToken.get(token) : null;
+        if (s == null || !claim.test(s.playerId, s.handler)) {
+            resumeFailed.increment();
+            return null;
+        }
+        ClientHandler previous = s.handler;
+        discard(s);
+        Session next = register(s.playerId, h);
+        resumed.increment();
+        return new Resumed(s.playerId, next.token, previous);
+    }
+
+    /**
+     * 連線中斷時呼叫：仍持有工作階段且寬限期大於 0 時開始計時並回傳 HELD。
+     */
+    synchronized Release release(ClientHandler h) {
+        Session s = byPlayer.get(h.getPlayerId());
+        if (s == null)
+            return Release.NONE;
+        if (s.handler != h)
+            return Release.SUPERSEDED;
+        long grace = graceMillis;
+        if (grace <= 0) {
+            discard(s);
+            return Release.NONE;
+        }
+        s.handler = null;
+        held++;
+        s.expiry = timer.schedule(() -> expire(s), grace, TimeUnit.MILLISECONDS);
+        return Release.HELD;
+    }
+
+    /**
+     * 當機復原的座位沒有工作階段 (權杖不寫入日誌)：同樣等一個寬限期，玩家仍未以密碼登入接回就交給 onExpire 釋放。
+     * 期間玩家接回後又斷線時，座位已由新的工作階段計時，這裡不再處理。
+     */
+    void holdRecovered(String playerId) {
+        timer.schedule(() -> {
+            synchronized (this) {
+                if (byPlayer.containsKey(playerId))
+                    return;
+            }
+            expired.increment();
+            onExpire.accept(playerId);
+        }, Math.max(graceMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    // 計時器執行緒：仍是同一個工作階段且沒有被接回才算過期，座位的釋放交給 onExpire
+    private void expire(Session s) {
+        synchronized (this) {
+            if (byToken.get(s.token) != s || s.handler != null)
+                return;
+            discard(s);
+        }
+        expired.increment();
+        onExpire.accept(s.playerId);
+    }
+
+    private Session register(String playerId, ClientHandler h) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        // URL 安全的 Base64 不含協定分隔字元 '|'
+        Session s = new Session(playerId, Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), h);
+        byToken.put(s.token, s);
+        byPlayer.put(playerId, s);
+        return s;
+    }
+
+    private void discard(Session s) {
+        if (s == null)
+            return;
+        byToken.remove(s.token);
+        byPlayer.remove(s.playerId, s);
+        if (s.expiry != null) {
+            s.expiry.cancel(false);
+            s.expiry = null;
+        }
+        if (s.handler == null)
+            held--;
+    }
+}